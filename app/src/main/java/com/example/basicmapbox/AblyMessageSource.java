@@ -0,0 +1,99 @@
+package com.example.basicmapbox;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.types.AblyException;
+
+/**
+ * The live feed: one Ably channel per subscribed feed channel, whose messages are delivered on
+ * the Ably event thread.
+ * <p>
+ * Feed channel names are prefixed with the product qualifier, and rewind, of the Ably channels.
+ * Channels subscribed before the source starts are attached when it does.
+ * </p>
+ * <p>
+ * Message data is passed on as Ably decoded it: text and binary messages arrive as a string or
+ * bytes and go to the streaming decoders, while JSON-encoded messages arrive already parsed into
+ * a Gson tree, which {@link FeedPayloadDecoder} can only read on its slow path.
+ * </p>
+ */
+final class AblyMessageSource implements VehicleMessageSource {
+
+    private final String apiKey;
+    private final String channelPrefix;
+    /* feed channel -> Ably channel, or null until started */
+    private final Map<String, Channel> channels = new HashMap<>();
+    private AblyRealtime realtime;
+    private Listener listener;
+
+    /**
+     * @param channelPrefix prepended to each feed channel to name its Ably channel
+     */
+    AblyMessageSource(String apiKey, String channelPrefix) {
+        this.apiKey = apiKey;
+        this.channelPrefix = channelPrefix;
+    }
+
+    @Override
+    public synchronized void start(Listener listener) throws IOException {
+        this.listener = listener;
+        try {
+            /* Instantiate a connection to Ably */
+            realtime = new AblyRealtime(apiKey);
+        } catch (AblyException err) {
+            throw new IOException(err.errorInfo.toString(), err);
+        }
+        for (String name : channels.keySet()) {
+            channels.put(name, attach(name));
+        }
+    }
+
+    @Override
+    public synchronized void subscribe(String channel) throws IOException {
+        if (channels.containsKey(channel)) {
+            return;
+        }
+        channels.put(channel, realtime != null ? attach(channel) : null);
+    }
+
+    @Override
+    public synchronized void unsubscribe(String channel) {
+        Channel ablyChannel = channels.remove(channel);
+        if (ablyChannel != null) {
+            ablyChannel.unsubscribe();
+            realtime.channels.release(channelPrefix + channel);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        for (Channel channel : channels.values()) {
+            if (channel != null) {
+                channel.unsubscribe();
+            }
+        }
+        if (realtime != null) {
+            realtime.close();
+        }
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Channel attach(String channel) throws IOException {
+        try {
+            /* Create a reference to the Ably channel we'll be subscribing to */
+            Channel ablyChannel = realtime.channels.get(channelPrefix + channel);
+            ablyChannel.subscribe((Channel.MessageListener) message -> listener.onMessage(message.data));
+            return ablyChannel;
+        } catch (AblyException err) {
+            throw new IOException(err.errorInfo.toString(), err);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.basicmapbox;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+
+import com.mapbox.mapboxsdk.maps.Style;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Draws the callout bubble of a vehicle into a style image off the main thread.
+ * <p>
+ * Images are named by the vehicle id and a hash of the text they show, so a callout is drawn
+ * again only when its card changes. Layouts are inflated, measured and drawn on a worker thread;
+ * finished bitmaps are kept in a least recently used cache bounded by their size in bytes. Style
+ * images are added and removed in one batch per main thread turn rather than one call per
+ * image, and an image is removed from the style when the cache evicts it.
+ * </p>
+ * <p>
+ * Until its bitmap is ready, a callout is simply not drawn, so asking for one never blocks. A
+ * callout that fails to draw is asked for again the next time it is requested. Changes made
+ * before the style has loaded wait for it. All methods must be called on the main thread.
+ * </p>
+ */
+final class CalloutRenderer {
+
+    private static final String TAG = "CalloutRenderer";
+    /* how often to check whether the style has loaded while changes are waiting for it */
+    private static final long STYLE_WAIT_INTERVAL = 100L;
+
+    private final Context context;
+    private final long maxBytes;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "callout-render");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LinkedHashMap<String, Bitmap> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private final HashSet<String> rendering = new HashSet<>();
+    /* style changes waiting for the next flush */
+    private final HashMap<String, Bitmap> pendingAdds = new HashMap<>();
+    private final ArrayList<String> pendingRemoves = new ArrayList<>();
+    private final Runnable flushTask = this::flush;
+    private boolean flushPosted;
+    private Style style;
+    private boolean closed;
+
+    /**
+     * @param maxBytes the most bitmap memory to keep, after which the least recently used
+     *                 callouts are dropped
+     */
+    CalloutRenderer(Context context, long maxBytes) {
+        this.context = context;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Sets the style images are added to, adding every cached image to it.
+     */
+    void setStyle(Style style) {
+        this.style = style;
+        pendingAdds.putAll(cache);
+        pendingRemoves.clear();
+        postFlush();
+    }
+
+    /**
+     * @return the image name of a card's callout
+     */
+    static String imageName(VehicleCardList.Card card) {
+        int hash = 31 * (31 * card.title.hashCode() + card.route.hashCode()) + card.date.hashCode();
+        return card.id + "#" + Integer.toHexString(hash);
+    }
+
+    /**
+     * Returns the image name of a card's callout, starting to draw it if it is not cached, and
+     * marks it as recently used.
+     */
+    String request(VehicleCardList.Card card) {
+        String name = imageName(card);
+        if (cache.get(name) == null && !closed && rendering.add(name)) {
+            String title = card.title;
+            String subtitle = card.route;
+            executor.execute(() -> {
+                Bitmap bitmap = tryDraw(name, title, subtitle);
+                mainHandler.post(() -> onRendered(name, bitmap));
+            });
+        }
+        return name;
+    }
+
+    /**
+     * Draws the callouts of the cards within {@code radius} of a position in the card strip.
+     */
+    void prerender(MainActivity.LocationRecyclerViewAdapter cards, int position, int radius) {
+        for (int index = Math.max(0, position - radius); index <= position + radius; index++) {
+            VehicleCardList.Card card = cards.cardAt(index);
+            if (card == null) {
+                break;
+            }
+            request(card);
+        }
+    }
+
+    /**
+     * Stops drawing; cached images stay in the style until it is discarded.
+     */
+    void close() {
+        closed = true;
+        executor.shutdownNow();
+        mainHandler.removeCallbacks(flushTask);
+    }
+
+    /**
+     * @return the drawn callout, or null if it could not be drawn
+     */
+    private Bitmap tryDraw(String name, String title, String subtitle) {
+        try {
+            return draw(title, subtitle);
+        } catch (RuntimeException err) {
+            /* such as a layout measuring to nothing, which no bitmap can hold */
+            Log.w(TAG, "Could not draw the callout " + name, err);
+            return null;
+        }
+    }
+
+    private Bitmap draw(String title, String subtitle) {
+        View view = LayoutInflater.from(context).inflate(R.layout.mapillary_layout_callout, null);
+        ((TextView) view.findViewById(R.id.title)).setText(title);
+        ((TextView) view.findViewById(R.id.style)).setText(subtitle);
+        int unspecified = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        view.measure(unspecified, unspecified);
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+        Bitmap bitmap = Bitmap.createBitmap(view.getMeasuredWidth(), view.getMeasuredHeight(), Bitmap.Config.ARGB_8888);
+        view.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    /**
+     * @param bitmap the drawn callout, or null if drawing failed
+     */
+    private void onRendered(String name, Bitmap bitmap) {
+        rendering.remove(name);
+        if (closed || bitmap == null) {
+            return;
+        }
+        cache.put(name, bitmap);
+        cachedBytes += bitmap.getByteCount();
+        pendingAdds.put(name, bitmap);
+        pendingRemoves.remove(name);
+        for (Iterator<Map.Entry<String, Bitmap>> it = cache.entrySet().iterator();
+             cachedBytes > maxBytes && it.hasNext(); ) {
+            Map.Entry<String, Bitmap> eldest = it.next();
+            if (eldest.getKey().equals(name)) {
+                continue;
+            }
+            it.remove();
+            cachedBytes -= eldest.getValue().getByteCount();
+            if (pendingAdds.remove(eldest.getKey()) == null) {
+                pendingRemoves.add(eldest.getKey());
+            }
+        }
+        postFlush();
+    }
+
+    private void postFlush() {
+        if (!flushPosted) {
+            flushPosted = true;
+            mainHandler.post(flushTask);
+        }
+    }
+
+    private void flush() {
+        flushPosted = false;
+        if (style == null || !style.isFullyLoaded()) {
+            if (!pendingAdds.isEmpty() || !pendingRemoves.isEmpty()) {
+                flushPosted = true;
+                mainHandler.postDelayed(flushTask, STYLE_WAIT_INTERVAL);
+            }
+            return;
+        }
+        for (String name : pendingRemoves) {
+            style.removeImage(name);
+        }
+        pendingRemoves.clear();
+        if (!pendingAdds.isEmpty()) {
+            style.addImages(new HashMap<>(pendingAdds));
+            pendingAdds.clear();
+        }
+    }
+}
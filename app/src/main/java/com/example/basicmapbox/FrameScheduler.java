@@ -0,0 +1,69 @@
+package com.example.basicmapbox;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a callback on the next Choreographer frame, at most once per frame and no more often than
+ * the configured maximum rate.
+ * <p>
+ * Must be created on the main thread; {@link #schedule()} may be called from any thread.
+ * </p>
+ */
+final class FrameScheduler implements Choreographer.FrameCallback {
+
+    interface Callback {
+        void onFrame(long frameTimeNanos);
+    }
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Callback callback;
+
+    private long minFrameIntervalNanos;
+    private long lastFrameTimeNanos;
+
+    FrameScheduler(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Limits how often the callback runs. A rate of zero or less runs it on every frame.
+     *
+     * @param framesPerSecond the maximum number of callbacks per second
+     */
+    void setMaxRate(int framesPerSecond) {
+        minFrameIntervalNanos = framesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / framesPerSecond : 0;
+    }
+
+    /**
+     * Requests the callback on the next eligible frame. Repeated calls before that frame are
+     * coalesced into one.
+     */
+    void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Drops any pending callback.
+     */
+    void cancel() {
+        choreographer.removeFrameCallback(this);
+        scheduled.set(false);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled.set(false);
+        if (lastFrameTimeNanos != 0 && frameTimeNanos - lastFrameTimeNanos < minFrameIntervalNanos) {
+            schedule();
+            return;
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+        callback.onFrame(frameTimeNanos);
+    }
+}
@@ -1,20 +1,18 @@
 package com.example.basicmapbox;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.AnimatorSet;
-import android.animation.TypeEvaluator;
-import android.animation.ValueAnimator;
+import android.content.Intent;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.graphics.PointF;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
-import androidx.interpolator.view.animation.FastOutSlowInInterpolator;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.DefaultItemAnimator;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.PagerSnapHelper;
@@ -25,22 +23,19 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.animation.LinearInterpolator;
 import android.widget.TextView;
 
-import com.google.gson.JsonObject;
-import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.FeatureCollection;
-import com.mapbox.geojson.LineString;
-import com.mapbox.geojson.Point;
 import com.mapbox.mapboxsdk.Mapbox;
 import com.mapbox.mapboxsdk.camera.CameraPosition;
 import com.mapbox.mapboxsdk.camera.CameraUpdateFactory;
 import com.mapbox.mapboxsdk.geometry.LatLng;
+import com.mapbox.mapboxsdk.geometry.LatLngBounds;
 import com.mapbox.mapboxsdk.maps.MapView;
 import com.mapbox.mapboxsdk.maps.MapboxMap;
 import com.mapbox.mapboxsdk.maps.OnMapReadyCallback;
 import com.mapbox.mapboxsdk.maps.Style;
+import com.mapbox.mapboxsdk.style.expressions.Expression;
+import com.mapbox.mapboxsdk.style.layers.CircleLayer;
 import com.mapbox.mapboxsdk.style.layers.LineLayer;
 import com.mapbox.mapboxsdk.style.layers.Property;
 import com.mapbox.mapboxsdk.style.layers.PropertyFactory;
@@ -48,6 +43,9 @@ import com.mapbox.mapboxsdk.style.layers.SymbolLayer;
 import com.mapbox.mapboxsdk.style.sources.GeoJsonSource;
 
 
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.circleColor;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.circleOpacity;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.circleRadius;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconAllowOverlap;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconImage;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconOffset;
@@ -56,49 +54,207 @@ import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.lineCap;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.lineColor;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.lineJoin;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.lineWidth;
-
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.textAllowOverlap;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.textColor;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.textField;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.textIgnorePlacement;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.textSize;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
-import io.ably.lib.realtime.AblyRealtime;
-import io.ably.lib.realtime.Channel;
-import io.ably.lib.types.AblyException;
-
 import static androidx.recyclerview.widget.RecyclerView.SCROLL_STATE_IDLE;
 import static com.mapbox.mapboxsdk.style.expressions.Expression.eq;
 import static com.mapbox.mapboxsdk.style.expressions.Expression.get;
+import static com.mapbox.mapboxsdk.style.expressions.Expression.has;
 import static com.mapbox.mapboxsdk.style.expressions.Expression.literal;
+import static com.mapbox.mapboxsdk.style.expressions.Expression.not;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconAnchor;
 
 public class MainActivity extends AppCompatActivity implements OnMapReadyCallback,
-        MapboxMap.OnMapClickListener {
+        MapboxMap.OnMapClickListener, MapboxMap.OnCameraIdleListener, MapboxMap.OnCameraMoveListener,
+        MapboxMap.OnCameraMoveStartedListener {
 
+    private static final String SOURCE_ID = "SOURCE_ID";
+    private static final String PARTITION_SOURCE_ID = "bus_source_";
+    private static final String SELECTED_SOURCE_ID = "selected_source";
     private static final String BUS_LAYER_ID = "bus_layer";
+    private static final String SELECTED_LAYER_ID = "selected_bus_layer";
     private static final String CALLOUT_LAYER_ID = "callout_layer";
+    private static final String CLUSTER_LAYER_ID = "cluster_layer";
+    private static final String CLUSTER_COUNT_LAYER_ID = "cluster_count_layer";
+    private static final String POINT_COUNT = FleetGeoJson.POINT_COUNT;
     private static final String LINE_LAYER_ID = "line_layer";
     private static final String LINE_ID = "line_id";
     private static final String ICON_ID = "icon_id";
-    private static final String BUS_SELECTED = "selected";
+    private static final String BUS_SELECTED = FleetGeoJson.SELECTED;
+    private static final String BUS_CALLOUT = FleetGeoJson.CALLOUT;
+    private static final long CALLOUT_CACHE_BYTES = 4 * 1024 * 1024;
+    /* callouts are drawn ahead for this many cards either side of the strip position */
+    private static final int CALLOUT_PRERENDER_RADIUS = 3;
     private static final long CAMERA_ANIMATION_TIME = 1950;
+    private static final float BUS_HIT_RADIUS_PIXELS = 24f;
+    private static final int MAX_SOURCE_UPDATES_PER_SECOND = 60;
+    private static final long MAX_EXTRAPOLATION_TIME = 60000L;
+    /* buses without a fix for this long are dropped, checked once per tick */
+    private static final long VEHICLE_TTL = 5 * 60 * 1000L;
+    private static final long EXPIRY_TICK = 1000L;
+    private static final long CORRECTION_BLEND_TIME = 2000L;
+    private static final double CORRECTION_SNAP_METRES = 250.0;
+    private static final int MAX_HISTORY_POINTS = 16;
+    private static final double HISTORY_TOLERANCE_METRES = 3.0;
+    private static final double HISTORY_TOLERANCE_DEGREES = 10.0;
+    private static final int TRAIL_MAX_POINTS = 512;
+    private static final double TRAIL_TOLERANCE_PIXELS = 2.0;
+    private static final long TRAIL_PUBLISH_INTERVAL = 250L;
+    private static final double VIEWPORT_MARGIN = 0.25;
+    /* frame work above this, on average, or more waiting messages than this reduce quality */
+    private static final long FRAME_WORK_BUDGET_NANOS = 8000000L;
+    private static final int INGEST_QUEUE_LIMIT = 5000;
+    private static final long QUALITY_STEP_DOWN_TIME = 500L;
+    private static final long QUALITY_STEP_UP_TIME = 3000L;
+    private static final long COALESCE_INTERVAL = 250L;
+    private static final int REDUCED_SOURCE_UPDATES_PER_SECOND = 20;
+    private static final int REWIND_MESSAGES = 500;
+    private static final String ABLY_CHANNEL_PREFIX = "[product:cttransit/gtfsr?rewind=" + REWIND_MESSAGES + "]";
+    /* tile channels replacing the firehose once the camera is close enough */
+    private static final int CHANNEL_TILE_ZOOM = 12;
+    private static final int CHANNEL_MAX_TILES = 16;
+    private static final double CHANNEL_EXIT_MARGIN = 0.5;
+    private static final long CHANNEL_LINGER_TIME = 10000L;
+    private static final long BOOTSTRAP_QUIET_TIME = 500L;
+    private static final long BOOTSTRAP_MAX_WAIT = 10000L;
+    private static final String SNAPSHOT_FILE = "fleet.snapshot";
+    private static final long SNAPSHOT_INTERVAL = 30000L;
+    private static final long SNAPSHOT_MAX_AGE = 15 * 60 * 1000L;
+    private static final String TRAJECTORY_DIRECTORY = "trajectory";
+    private static final int TRAJECTORY_SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final long TRAJECTORY_RETENTION = 24 * 60 * 60 * 1000L;
+    private static final long TRAJECTORY_LATE_TOLERANCE = 2 * 60 * 1000L;
+    private static final int PLAYBACK_MAX_FIXES_PER_FRAME = 2048;
+    private static final long CARD_PUBLISH_INTERVAL = 500L;
+    private static final String TAG = "MainActivity";
+    /* launch extras choosing where messages come from, the live feed if absent */
+    static final String EXTRA_FEED = "feed";
+    static final String FEED_REPLAY = "replay";
+    static final String FEED_SYNTHETIC = "synthetic";
+    static final String EXTRA_REPLAY_FILE = "replay_file";
+    static final String EXTRA_REPLAY_SPEED = "replay_speed";
+    static final String EXTRA_SYNTHETIC_VEHICLES = "synthetic_vehicles";
+    static final String EXTRA_SYNTHETIC_RATE = "synthetic_rate";
+    /* launch extra naming a file to record the live feed to, for replaying later */
+    static final String EXTRA_RECORD_FILE = "record_file";
+    /* launch extra following the viewport with tile and route channels; on by default for the
+       synthetic fleet only, as the live feed publishes the firehose alone */
+    static final String EXTRA_DYNAMIC_CHANNELS = "dynamic_channels";
+    /* launch extra showing pipeline metrics on top of the map */
+    static final String EXTRA_DEBUG_OVERLAY = "debug_overlay";
+    private static final long DEBUG_OVERLAY_INTERVAL = 500L;
+    private static final String DUMP_RESET_METRICS = "--reset-metrics";
+    private static final int SYNTHETIC_VEHICLES = 1000;
+    private static final float SYNTHETIC_RATE = 1f;
+    private static final double SYNTHETIC_LONGITUDE = -72.6851;
+    private static final double SYNTHETIC_LATITUDE = 41.7637;
+    private static final double SYNTHETIC_RADIUS_METRES = 15000.0;
+    private static final long SYNTHETIC_SEED = 1L;
     private MapView mapView;
     private MapboxMap mapboxMap;
     private RecyclerView recyclerView;
 
+    /* clusters and lone buses below the clustering zoom */
     private GeoJsonSource source;
-    private FeatureCollection featureCollection = FeatureCollection.fromFeatures(new ArrayList());
-    private HashMap<String, Feature> buses = new HashMap<>();
-    private HashMap<String, Integer> currentBusStep = new HashMap<>();
-    private HashMap<String, Animator> currentAnimator = new HashMap<>();
-    private HashMap<String, Boolean> busIsMoving = new HashMap<>();
-    private HashMap<String, List<Point>> busPoints = new HashMap<>();
-
-    private AnimatorSet animatorSet;
+    /* buses at street zoom, one source per partition */
+    private GeoJsonSource[] partitionSources;
+    private GeoJsonSource selectedSource;
+    private boolean clustered;
+    private int publishedSelectedSlot = VehicleStore.NO_SLOT;
+    private final VehicleStore vehicles = new VehicleStore(MAX_HISTORY_POINTS);
+    private final ExpiryWheel expiry = new ExpiryWheel(VEHICLE_TTL, EXPIRY_TICK, 64);
+    private final ExpiryWheel.Callback expireVehicle = this::removeVehicle;
+
+    private final CameraController camera = new CameraController(vehicles, CAMERA_ANIMATION_TIME);
     private GeoJsonSource lineSource;
-    private List<Point> markerLinePointList = new ArrayList<>();
+    private final TrailRecorder trail = new TrailRecorder(TRAIL_MAX_POINTS, TRAIL_TOLERANCE_PIXELS, TRAIL_PUBLISH_INTERVAL);
+
+    private final VehicleUpdateBuffer updateBuffer = new VehicleUpdateBuffer();
+    private final PipelineMetrics metrics = new PipelineMetrics(updateBuffer);
+    private final QualityController quality = new QualityController(FRAME_WORK_BUDGET_NANOS, INGEST_QUEUE_LIMIT,
+            QUALITY_STEP_DOWN_TIME, QUALITY_STEP_UP_TIME, this::onQualityChanged);
+    private long lastDrainMillis;
+    /* receipt times of the updates applied since the last upload */
+    private long[] appliedReceipts = new long[64];
+    private int appliedReceiptCount;
+    private TextView debugOverlay;
+    private final StringBuilder debugText = new StringBuilder(1024);
+    private final Runnable debugOverlayTask = new Runnable() {
+        @Override
+        public void run() {
+            debugText.setLength(0);
+            metrics.dump(debugText);
+            debugText.append(quality.describe()).append('\n');
+            if (subscriptions != null) {
+                debugText.append(subscriptions.describe()).append('\n');
+            }
+            debugText.append("buses=").append(vehicles.size())
+                    .append(" culled=").append(interpolationEngine.getLastCulledCount());
+            debugOverlay.setText(debugText);
+            mainHandler.postDelayed(this, DEBUG_OVERLAY_INTERVAL);
+        }
+    };
+    private VehicleMessageSource messageSource;
+    /* only the live feed is kept in the trajectory log, never synthetic or replayed history */
+    private boolean liveFeed;
+    private volatile FeedRecording.Writer feedRecorder;
+    /* null while the firehose is subscribed for good */
+    private ChannelSubscriptions subscriptions;
+    private final ArrayList<String> followedRoutes = new ArrayList<>(1);
+    private final Runnable subscriptionTask = this::updateSubscriptions;
+    /* only touched from the message source's delivery thread */
+    private final VehicleMessageDecoder messageDecoder = new FeedPayloadDecoder();
+    private final VehicleFix decodedFix = new VehicleFix();
+    private FeedBootstrap feedBootstrap;
+    /* live updates stay staged until the replayed history has been applied */
+    private boolean bootstrapping = true;
+    private long connectStartMillis;
+    private boolean coldStartPending;
+    private FleetSnapshot fleetSnapshot;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable snapshotTask = new Runnable() {
+        @Override
+        public void run() {
+            /* frames stop when the feed does, so expiry is also checked here */
+            expireVehicles();
+            saveSnapshot();
+            mainHandler.postDelayed(this, SNAPSHOT_INTERVAL);
+        }
+    };
+    private LocationRecyclerViewAdapter cardAdapter;
+    private final VehicleCardList cardList = new VehicleCardList();
+    private final CalloutRenderer callouts = new CalloutRenderer(this, CALLOUT_CACHE_BYTES);
+    private boolean cardPublishPending;
+    private long lastCardPublishMillis;
+    private final Runnable cardPublishTask = this::publishCards;
+    /* buses restored from the snapshot which the replayed history has not confirmed yet */
+    private final HashSet<String> unconfirmedIds = new HashSet<>();
+    private TrajectoryLog trajectoryLog;
+    /* replaces the live feed while set */
+    private TrajectoryPlayback playback;
+    private FrameScheduler frameScheduler;
+    private boolean sourceDirty;
+    private final InterpolationEngine interpolationEngine = new InterpolationEngine(vehicles, this::feedTimeMillis);
+    private final FleetGeoJson fleetGeoJson = new FleetGeoJson(vehicles);
+    private final Viewport viewport = new Viewport(VIEWPORT_MARGIN);
+    private double cameraZoom;
 
 
     @ActivityStep
@@ -133,6 +289,27 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         setContentView(R.layout.activity_main);
 
         recyclerView = findViewById(R.id.rv_on_top_of_map);
+        if (getIntent().getBooleanExtra(EXTRA_DEBUG_OVERLAY, false)) {
+            debugOverlay = findViewById(R.id.debug_overlay);
+            debugOverlay.setVisibility(View.VISIBLE);
+        }
+
+        frameScheduler = new FrameScheduler(this::onFrame);
+        frameScheduler.setMaxRate(MAX_SOURCE_UPDATES_PER_SECOND);
+        interpolationEngine.setMotion(MAX_EXTRAPOLATION_TIME, CORRECTION_BLEND_TIME, CORRECTION_SNAP_METRES);
+        interpolationEngine.setViewport(viewport);
+        vehicles.history().setSimplification(HISTORY_TOLERANCE_METRES, HISTORY_TOLERANCE_DEGREES);
+        fleetSnapshot = new FleetSnapshot(new File(getFilesDir(), SNAPSHOT_FILE));
+        trajectoryLog = new TrajectoryLog(new File(getFilesDir(), TRAJECTORY_DIRECTORY),
+                TRAJECTORY_SEGMENT_BYTES, TRAJECTORY_RETENTION);
+        new Thread(() -> {
+            try {
+                trajectoryLog.open();
+                trajectoryLog.pruneBefore(System.currentTimeMillis() - TRAJECTORY_RETENTION);
+            } catch (IOException err) {
+                Log.w(TAG, "Could not open the trajectory log", err);
+            }
+        }, "trajectory-open").start();
 
         // Initialize the map view
         mapView = findViewById(R.id.mapView);
@@ -150,64 +327,420 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                     mapboxMap.getUiSettings().setLogoEnabled(false);
                     mapboxMap.getUiSettings().setAttributionEnabled(false);
                     mapboxMap.addOnMapClickListener(MainActivity.this);
+                    mapboxMap.addOnCameraIdleListener(MainActivity.this);
+                    mapboxMap.addOnCameraMoveListener(MainActivity.this);
+                    mapboxMap.addOnCameraMoveStartedListener(MainActivity.this);
+                    updateViewport();
+                    restoreSnapshot();
                     try {
-                        setupAbly();
-                    } catch(AblyException err) {
-                        Log.e("ERROR", err.errorInfo.toString());
+                        setupFeed();
+                    } catch(IOException err) {
+                        Log.e("ERROR", String.valueOf(err.getMessage()));
                     }
                 });
 
     }
 
-    public void setupAbly() throws AblyException {
-        /* Instantiate a connection to Ably */
-        AblyRealtime realtime = new AblyRealtime(R.string.ably_api_key);
-
-        /* Create a reference to the Ably channel we'll be subscribing to */
-        Channel channel = realtime.channels.get("[product:cttransit/gtfsr?rewind=500]vehicle:all");
-
-        /* Subscribe to the channel, listening for any messages which come through */
-        channel.subscribe((Channel.MessageListener) message -> {
-            final JsonObject json = (JsonObject)message.data;
-
-            JsonObject vehicle = json.getAsJsonObject("vehicle");
-            JsonObject position = vehicle.getAsJsonObject("position");
-            final Double longitude = position.get("longitude").getAsDouble();
-            final Double latitude = position.get("latitude").getAsDouble();
-            final String id = json.get("id").getAsString();
-
-            runOnUiThread(() -> {
-                JsonObject featureDetails = getDetails(vehicle);
-                Feature tmpFeature = Feature.fromGeometry(
-                        Point.fromLngLat(longitude, latitude),
-                        featureDetails, id);
-                if (buses.get(id) == null) {
-                    tmpFeature.addBooleanProperty(BUS_SELECTED, false);
-
-                    buses.put(id, tmpFeature);
-                    Point newPoint = Point.fromLngLat(longitude, latitude);
-                    busPoints.put(id, new ArrayList<>());
-                    busPoints.get(id).add(newPoint);
-                } else {
-                    Point newPoint = Point.fromLngLat(longitude, latitude);
-                    busPoints.get(id).add(newPoint);
-                    if (busIsMoving.get(id) == null || busIsMoving.get(id) == false) {
-                        animate(id);
-                    }
-                }
-                refreshSource();
-            });
+    public void setupFeed() throws IOException {
+        messageSource = createMessageSource();
+        liveFeed = messageSource instanceof AblyMessageSource;
+        String recordFile = getIntent().getStringExtra(EXTRA_RECORD_FILE);
+        if (recordFile != null && liveFeed) {
+            feedRecorder = new FeedRecording.Writer(new File(recordFile));
+        }
+        if (getIntent().getBooleanExtra(EXTRA_DYNAMIC_CHANNELS, messageSource instanceof SyntheticMessageSource)) {
+            subscriptions = new ChannelSubscriptions(messageSource, CHANNEL_TILE_ZOOM, CHANNEL_MAX_TILES,
+                    CHANNEL_EXIT_MARGIN, CHANNEL_LINGER_TIME);
+            updateSubscriptions();
+        } else {
+            messageSource.subscribe(FeedChannels.ALL);
+        }
+
+        /* The replayed history is collected as one batch, anything after it takes the live path */
+        connectStartMillis = SystemClock.uptimeMillis();
+        feedBootstrap = new FeedBootstrap(REWIND_MESSAGES, BOOTSTRAP_QUIET_TIME, BOOTSTRAP_MAX_WAIT,
+                batch -> runOnUiThread(() -> applyBootstrap(batch)));
+        feedBootstrap.start();
+
+        /* Subscribe to the source, staging every message until the next frame drains them */
+        messageSource.start(payload -> {
+            long receivedNanos = System.nanoTime();
+            FeedRecording.Writer recorder = feedRecorder;
+            if (recorder != null) {
+                record(recorder, payload);
+            }
+            boolean decoded = messageDecoder.decode(payload, decodedFix);
+            metrics.decode.record(System.nanoTime() - receivedNanos);
+            metrics.messages++;
+            if (!decoded) {
+                metrics.undecodable++;
+                return;
+            }
+            decodedFix.receivedNanos = receivedNanos;
+            if (liveFeed) {
+                trajectoryLog.append(decodedFix);
+            }
+            if (!feedBootstrap.offer(decodedFix)) {
+                updateBuffer.offer(decodedFix);
+                frameScheduler.schedule();
+            }
         });
         setupData();
     }
 
-    public JsonObject getDetails(JsonObject vehicle)  {
-        JsonObject featureDetails = new JsonObject();
-        featureDetails.addProperty("startDate", vehicle.getAsJsonObject("trip").get("startDate").getAsString());
-        featureDetails.addProperty("routeId", vehicle.getAsJsonObject("trip").get("routeId").getAsString());
-        featureDetails.addProperty("tripId", vehicle.getAsJsonObject("trip").get("tripId").getAsString());
+    /**
+     * Writes a payload, as it arrived, to the recording asked for at launch. Recording stops at
+     * the first failure.
+     */
+    private void record(FeedRecording.Writer recorder, Object payload) {
+        synchronized (recorder) {
+            try {
+                recorder.write(messageSource.currentTimeMillis(), payload);
+            } catch (IOException err) {
+                Log.w(TAG, "Could not record the feed", err);
+                closeFeedRecorder();
+            }
+        }
+    }
+
+    private void closeFeedRecorder() {
+        FeedRecording.Writer recorder = feedRecorder;
+        if (recorder == null) {
+            return;
+        }
+        feedRecorder = null;
+        synchronized (recorder) {
+            try {
+                recorder.close();
+            } catch (IOException err) {
+                Log.w(TAG, "Could not close the feed recording", err);
+            }
+        }
+    }
+
+    /**
+     * Picks the message source named by the launch intent: a recording replayed from a file, a
+     * synthetic fleet, or by default the live Ably channels.
+     */
+    private VehicleMessageSource createMessageSource() {
+        Intent intent = getIntent();
+        String feed = intent.getStringExtra(EXTRA_FEED);
+        if (FEED_REPLAY.equals(feed) && intent.getStringExtra(EXTRA_REPLAY_FILE) != null) {
+            return new ReplayMessageSource(new File(intent.getStringExtra(EXTRA_REPLAY_FILE)),
+                    intent.getFloatExtra(EXTRA_REPLAY_SPEED, 1f));
+        }
+        if (FEED_SYNTHETIC.equals(feed)) {
+            return new SyntheticMessageSource(intent.getIntExtra(EXTRA_SYNTHETIC_VEHICLES, SYNTHETIC_VEHICLES),
+                    intent.getFloatExtra(EXTRA_SYNTHETIC_RATE, SYNTHETIC_RATE),
+                    SYNTHETIC_LONGITUDE, SYNTHETIC_LATITUDE, SYNTHETIC_RADIUS_METRES, SYNTHETIC_SEED);
+        }
+        return new AblyMessageSource(getString(R.string.ably_api_key), ABLY_CHANNEL_PREFIX);
+    }
+
+    /**
+     * Applies every update staged since the previous frame, advances all moving buses and pushes
+     * the result to the source at most once.
+     */
+    private void onFrame(long frameTimeNanos) {
+        long frameStart = System.nanoTime();
+        long uptime = SystemClock.uptimeMillis();
+        long queueDepth = updateBuffer.getPendingReceived();
+        /* while coalescing, fixes stay in the buffer longer so more of them are merged */
+        boolean drainDeferred = false;
+        if (playback != null) {
+            if (playback.advance(uptime, this::applyUpdate) > 0) {
+                sourceDirty = true;
+            }
+        } else if (!bootstrapping && quality.atLeast(QualityController.COALESCE)
+                && uptime - lastDrainMillis < COALESCE_INTERVAL) {
+            drainDeferred = queueDepth > 0;
+        } else if (!bootstrapping) {
+            lastDrainMillis = uptime;
+            int drained = updateBuffer.drain(this::applyUpdate);
+            if (drained > 0) {
+                metrics.storeUpdate.record(System.nanoTime() - frameStart);
+            }
+            if (drained > 0 && Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Flushed " + drained + " buses from " + updateBuffer.getLastFlushReceived()
+                        + " messages, " + updateBuffer.getLastFlushMerged() + " merged");
+            }
+        }
+        expireVehicles();
+        long tickStart = System.nanoTime();
+        int moved = interpolationEngine.tick();
+        metrics.tick.record(System.nanoTime() - tickStart);
+        if (moved > 0) {
+            sourceDirty = true;
+            updateSelectedTrail();
+        }
+        /* after the tick, so a followed bus is framed where it is drawn this frame */
+        if (camera.step(frameTimeNanos)) {
+            moveCamera();
+        }
+        if (sourceDirty) {
+            sourceDirty = false;
+            refreshSource();
+        }
+        long uploaded = System.nanoTime();
+        for (int i = 0; i < appliedReceiptCount; i++) {
+            metrics.receiptToUpload.record(uploaded - appliedReceipts[i]);
+        }
+        appliedReceiptCount = 0;
+        metrics.frame.record(uploaded - frameStart);
+        quality.onFrame(uploaded - frameStart, queueDepth, uptime);
+        if (coldStartPending && source != null) {
+            coldStartPending = false;
+            Log.i(TAG, "Cold start: first fleet frame " + (SystemClock.uptimeMillis() - connectStartMillis)
+                    + " ms after connecting");
+        }
+        if (interpolationEngine.isAnimating() || camera.isAnimating() || playback != null || drainDeferred) {
+            frameScheduler.schedule();
+        }
+    }
+
+    /**
+     * Applies a new quality level; every setting is derived from the level, so it works for
+     * steps in both directions.
+     */
+    private void onQualityChanged(int level, String reason) {
+        Log.i(TAG, "Quality " + QualityController.name(level) + ": " + reason);
+        frameScheduler.setMaxRate(quality.atLeast(QualityController.REDUCED_RATE)
+                ? REDUCED_SOURCE_UPDATES_PER_SECOND : MAX_SOURCE_UPDATES_PER_SECOND);
+        if (quality.atLeast(QualityController.NO_TRAIL) && trail.size() > 0) {
+            trail.reset();
+            if (lineSource != null) {
+                upload(lineSource, fleetGeoJson.empty());
+            }
+        }
+        viewport.setMargin(quality.atLeast(QualityController.STRICT_CULL) ? 0 : VIEWPORT_MARGIN);
+        if (mapboxMap != null && viewport.isBounded()) {
+            updateViewport();
+        }
+    }
+
+    /**
+     * Replaces the live fleet with the fleet as logged at a past time, then plays the log forward
+     * from there through the same path live updates take.
+     *
+     * @param timestamp the feed time to start from, in epoch milliseconds
+     * @param speed     how many times faster than real time to play
+     */
+    public void startPlayback(long timestamp, double speed) {
+        clearFleet();
+        playback = new TrajectoryPlayback(trajectoryLog, TRAJECTORY_LATE_TOLERANCE, PLAYBACK_MAX_FIXES_PER_FRAME);
+        playback.seek(timestamp, speed, SystemClock.uptimeMillis(), this::applyUpdate);
+        invalidateSource();
+    }
+
+    /**
+     * Returns to the live feed, starting from the newest state in the log. Live updates staged
+     * during playback follow on the next frame.
+     */
+    public void stopPlayback() {
+        if (playback == null) {
+            return;
+        }
+        playback = null;
+        clearFleet();
+        new TrajectoryPlayback(trajectoryLog, TRAJECTORY_LATE_TOLERANCE, PLAYBACK_MAX_FIXES_PER_FRAME)
+                .seek(trajectoryLog.maxTimestamp(), 1.0, SystemClock.uptimeMillis(), this::applyUpdate);
+        invalidateSource();
+    }
+
+    private void clearFleet() {
+        deselectAll(false);
+        for (int index = vehicles.size() - 1; index >= 0; index--) {
+            removeVehicle(vehicles.slotAt(index));
+        }
+    }
+
+    /**
+     * Forgets a vehicle in every per-vehicle structure; the store clears its own indexes, the
+     * sources and the card strip drop it on their next refresh.
+     */
+    private void removeVehicle(int slot) {
+        interpolationEngine.remove(slot);
+        expiry.remove(slot);
+        vehicles.remove(slot);
+    }
+
+    /**
+     * Drops every bus whose last fix is older than {@link #VEHICLE_TTL} in feed time, as one
+     * batch with a single source refresh.
+     */
+    private void expireVehicles() {
+        if (bootstrapping) {
+            /* restored buses are reconciled by the replayed history instead */
+            return;
+        }
+        int selected = getSelectedSlot();
+        int expired = expiry.advance(feedTimeMillis(), expireVehicle);
+        if (expired == 0) {
+            return;
+        }
+        metrics.expired += expired;
+        if (selected != VehicleStore.NO_SLOT && getSelectedSlot() == VehicleStore.NO_SLOT) {
+            deselectAll(true);
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Expired " + expired + " buses, " + vehicles.size() + " left");
+        }
+        invalidateSource();
+    }
+
+    /**
+     * Builds the whole fleet from the replayed history in one pass, then lets the first live frame
+     * render it. Each bus is fed its fixes oldest first, so its velocity is known by the time the
+     * first live fix arrives.
+     */
+    private void applyBootstrap(FeedBootstrap.Batch batch) {
+        long startMillis = SystemClock.uptimeMillis();
+        PositionHistory history = vehicles.history();
+        for (int v = 0; v < batch.vehicleCount; v++) {
+            unconfirmedIds.remove(batch.ids[v]);
+            int slot = vehicles.slotOf(batch.ids[v]);
+            if (slot == VehicleStore.NO_SLOT) {
+                slot = vehicles.intern(batch.ids[v]);
+            } else {
+                history.clear(slot);
+                interpolationEngine.remove(slot);
+            }
+            VehicleFix latest = batch.latest[v];
+            int last = batch.start[v + 1] - 1;
+            for (int i = batch.start[v]; i <= last; i++) {
+                long timestamp = batch.timestamp[i] != 0 ? batch.timestamp[i] : feedTimeMillis();
+                history.append(slot, batch.longitude[i], batch.latitude[i], timestamp);
+                interpolationEngine.update(slot, batch.longitude[i], batch.latitude[i], timestamp,
+                        i == last ? latest.bearing : Double.NaN, i == last ? latest.speed : Double.NaN);
+                expiry.touch(slot, timestamp);
+            }
+            vehicles.setTrip(slot, latest.startDate, latest.routeId, latest.tripId);
+        }
+        if (batch.vehicleCount > 0) {
+            for (String id : unconfirmedIds) {
+                int slot = vehicles.slotOf(id);
+                if (slot != VehicleStore.NO_SLOT) {
+                    removeVehicle(slot);
+                }
+            }
+        }
+        /* with no history to go by, restored buses are left to expire like any other */
+        unconfirmedIds.clear();
+        Log.i(TAG, "Bootstrapped " + batch.vehicleCount + " buses from " + batch.messageCount
+                + " messages, collected in " + batch.elapsedMillis + " ms, applied in "
+                + (SystemClock.uptimeMillis() - startMillis) + " ms");
+        bootstrapping = false;
+        coldStartPending = true;
+        invalidateSource();
+    }
+
+    /**
+     * Shows the fleet as it was last saved while the feed is still connecting. Restored buses
+     * are replaced by the replayed history, and those it does not mention are dropped. If no
+     * history arrived at all, restored buses stay until they expire.
+     */
+    private void restoreSnapshot() {
+        long startMillis = SystemClock.uptimeMillis();
+        long savedAtMillis;
+        try {
+            savedAtMillis = fleetSnapshot.read((id, longitude, latitude, timestamp, startDate, routeId, tripId) -> {
+                int slot = vehicles.intern(id);
+                interpolationEngine.update(slot, longitude, latitude, timestamp, Double.NaN, Double.NaN);
+                expiry.touch(slot, timestamp);
+                vehicles.history().append(slot, longitude, latitude, timestamp);
+                vehicles.setTrip(slot, startDate, routeId, tripId);
+                unconfirmedIds.add(id);
+            });
+        } catch (IOException err) {
+            Log.w(TAG, "Could not read the fleet snapshot", err);
+            return;
+        }
+        if (savedAtMillis < 0) {
+            return;
+        }
+        if (System.currentTimeMillis() - savedAtMillis > SNAPSHOT_MAX_AGE) {
+            /* too old to be worth showing, wait for the feed instead */
+            for (String id : unconfirmedIds) {
+                removeVehicle(vehicles.slotOf(id));
+            }
+            unconfirmedIds.clear();
+            return;
+        }
+        Log.i(TAG, "Restored " + unconfirmedIds.size() + " buses from the snapshot in "
+                + (SystemClock.uptimeMillis() - startMillis) + " ms");
+        invalidateSource();
+    }
+
+    /**
+     * Saves the fleet once it reflects live data, so a stale restore is never saved as fresh.
+     */
+    private void saveSnapshot() {
+        if (!bootstrapping && playback == null && fleetSnapshot != null) {
+            fleetSnapshot.save(vehicles);
+        }
+    }
+
+    private void applyUpdate(VehicleFix update) {
+        int slot = vehicles.slotOf(update.id);
+        long timestamp = update.timestamp != 0 ? update.timestamp : feedTimeMillis();
+        if (slot == VehicleStore.NO_SLOT) {
+            slot = vehicles.intern(update.id);
+        }
+        if (interpolationEngine.update(slot, update.longitude, update.latitude, timestamp,
+                update.bearing, update.speed)) {
+            expiry.touch(slot, timestamp);
+            vehicles.history().append(slot, update.longitude, update.latitude, timestamp);
+            if (update.timestamp != 0) {
+                metrics.feedToFrame.record(feedTimeMillis() - update.timestamp);
+            }
+            if (update.receivedNanos != 0) {
+                if (appliedReceiptCount == appliedReceipts.length) {
+                    appliedReceipts = Arrays.copyOf(appliedReceipts, appliedReceiptCount * 2);
+                }
+                appliedReceipts[appliedReceiptCount++] = update.receivedNanos;
+            }
+        } else {
+            metrics.stale++;
+        }
+        vehicles.setTrip(slot, update.startDate, update.routeId, update.tripId);
+        sourceDirty = true;
+        scheduleCardPublish();
+    }
+
+    /**
+     * Marks the source as stale so the next frame pushes it once, however many changes happen
+     * before then.
+     */
+    private void invalidateSource() {
+        sourceDirty = true;
+        frameScheduler.schedule();
+        scheduleCardPublish();
+    }
+
+    /**
+     * Brings the card strip in line with the store no more often than
+     * {@link #CARD_PUBLISH_INTERVAL}.
+     */
+    private void scheduleCardPublish() {
+        if (cardPublishPending || cardAdapter == null) {
+            return;
+        }
+        cardPublishPending = true;
+        long wait = lastCardPublishMillis + CARD_PUBLISH_INTERVAL - SystemClock.uptimeMillis();
+        mainHandler.postDelayed(cardPublishTask, Math.max(0L, wait));
+    }
 
-        return featureDetails;
+    /**
+     * Hands a new card list to the adapter, which diffs it off the main thread, if any card
+     * changed.
+     */
+    private void publishCards() {
+        cardPublishPending = false;
+        lastCardPublishMillis = SystemClock.uptimeMillis();
+        List<VehicleCardList.Card> cards = cardList.publish(vehicles);
+        if (cards != null) {
+            cardAdapter.submitList(cards);
+        }
     }
 
     public void setupData() {
@@ -217,14 +750,23 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         mapboxMap.getStyle(style -> {
             setupSource(style);
             setupLayer(style);
+            setupClusterLayers(style);
+            setupSelectedLayer(style);
             setupCalloutLayer(style);
             setupRecyclerView();
         });
     }
 
     private void setupSource(@NonNull Style loadedMapStyle) {
-        source = new GeoJsonSource("SOURCE_ID", featureCollection);
+        source = new GeoJsonSource(SOURCE_ID);
         loadedMapStyle.addSource(source);
+        partitionSources = new GeoJsonSource[vehicles.partitions().partitionCount()];
+        for (int partition = 0; partition < partitionSources.length; partition++) {
+            partitionSources[partition] = new GeoJsonSource(PARTITION_SOURCE_ID + partition);
+            loadedMapStyle.addSource(partitionSources[partition]);
+        }
+        selectedSource = new GeoJsonSource(SELECTED_SOURCE_ID);
+        loadedMapStyle.addSource(selectedSource);
         loadedMapStyle.addSource(lineSource = new GeoJsonSource(LINE_ID));
         loadedMapStyle.addLayerBelow(new LineLayer(LINE_LAYER_ID, LINE_ID).withProperties(
                 lineColor(Color.parseColor("#F13C6E")),
@@ -233,37 +775,143 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                 lineWidth(4f)), "road-label");
     }
 
+    /**
+     * Publishes every bus inside the viewport at its interpolated position. At street zoom only
+     * the partitions holding changed buses are serialized and uploaded. Below the clustering zoom,
+     * nearby buses are published as a single cluster feature instead. The selected bus has a
+     * source of its own, so selecting a bus uploads that one feature.
+     */
     private void refreshSource() {
-        featureCollection.features().clear();
-        featureCollection.features().addAll(buses.values());
-        if (source != null && featureCollection != null) {
-            source.setGeoJson(featureCollection);
+        if (source == null) {
+            return;
+        }
+        SourcePartitions partitions = vehicles.partitions();
+        int selected = getSelectedSlot();
+        boolean selectedDirty = selected != publishedSelectedSlot || (selected != VehicleStore.NO_SLOT
+                && (vehicles.isMoving(selected) || partitions.isDirty(partitions.partitionOf(selected))));
+
+        if (cameraZoom < vehicles.clusters().maxZoom() + 1) {
+            long start = System.nanoTime();
+            upload(source, fleetGeoJson.clusters(cameraZoom, viewport), start);
+            if (!clustered) {
+                clustered = true;
+                String empty = fleetGeoJson.empty();
+                for (GeoJsonSource partitionSource : partitionSources) {
+                    upload(partitionSource, empty);
+                }
+            }
+        } else {
+            if (clustered) {
+                clustered = false;
+                upload(source, fleetGeoJson.empty());
+                partitions.markAllDirty();
+            }
+            for (int partition = 0; partition < partitionSources.length; partition++) {
+                if (partitions.isDirty(partition)) {
+                    refreshPartition(partition);
+                }
+            }
+        }
+
+        if (selectedDirty) {
+            publishedSelectedSlot = selected;
+            long start = System.nanoTime();
+            upload(selectedSource, fleetGeoJson.selected(selected, calloutOf(selected)), start);
+        }
+    }
+
+    /**
+     * @return the callout image of a bus, drawn in the background if it is not ready, or null if
+     * the bus has no card yet
+     */
+    private String calloutOf(int slot) {
+        if (slot == VehicleStore.NO_SLOT || cardAdapter == null) {
+            return null;
         }
+        VehicleCardList.Card card = cardAdapter.cardAt(cardAdapter.indexOf(vehicles.id(slot)));
+        return card == null ? null : callouts.request(card);
+    }
+
+    private void refreshPartition(int partition) {
+        long start = System.nanoTime();
+        upload(partitionSources[partition], fleetGeoJson.partition(partition, viewport), start);
+        vehicles.partitions().uploaded(partition);
     }
 
     /**
-     * Setup a layer
+     * Hands serialized text to a source, timing the serialization which started at
+     * {@code serializeStart} and the upload itself.
+     */
+    private void upload(GeoJsonSource target, String json, long serializeStart) {
+        metrics.serialization.record(System.nanoTime() - serializeStart);
+        upload(target, json);
+    }
+
+    private void upload(GeoJsonSource target, String json) {
+        long start = System.nanoTime();
+        target.setGeoJson(json);
+        metrics.upload.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Setup the bus layers, one per partition source plus one for lone buses between clusters
      */
     private void setupLayer(@NonNull Style loadedMapStyle) {
-        loadedMapStyle.addLayer(new SymbolLayer(BUS_LAYER_ID, "SOURCE_ID")
+        for (int partition = 0; partition < partitionSources.length; partition++) {
+            loadedMapStyle.addLayer(busLayer(BUS_LAYER_ID + "_" + partition, PARTITION_SOURCE_ID + partition));
+        }
+        loadedMapStyle.addLayer(busLayer(BUS_LAYER_ID, SOURCE_ID)
+                .withFilter(not(has(POINT_COUNT)))
+        );
+    }
+
+    /**
+     * Setup the layer drawing the selected bus above every other bus
+     */
+    private void setupSelectedLayer(@NonNull Style loadedMapStyle) {
+        loadedMapStyle.addLayer(busLayer(SELECTED_LAYER_ID, SELECTED_SOURCE_ID));
+    }
+
+    private SymbolLayer busLayer(String layerId, String sourceId) {
+        return new SymbolLayer(layerId, sourceId)
                 .withProperties(PropertyFactory.iconImage(ICON_ID),
                         iconAllowOverlap(true),
                         iconSize(1f),
-                        iconOffset(new Float[]{0f, -9f}))
-        );
+                        iconOffset(new Float[]{0f, -9f}));
+    }
+
+    /**
+     * Setup the layers drawing bus clusters as a circle with the number of buses inside
+     */
+    private void setupClusterLayers(@NonNull Style loadedMapStyle) {
+        loadedMapStyle.addLayer(new CircleLayer(CLUSTER_LAYER_ID, SOURCE_ID)
+                .withProperties(
+                        circleColor(Color.parseColor("#F13C6E")),
+                        circleRadius(18f),
+                        circleOpacity(0.85f))
+                .withFilter(has(POINT_COUNT)));
+        loadedMapStyle.addLayer(new SymbolLayer(CLUSTER_COUNT_LAYER_ID, SOURCE_ID)
+                .withProperties(
+                        textField(Expression.toString(get(POINT_COUNT))),
+                        textSize(12f),
+                        textColor(Color.WHITE),
+                        textIgnorePlacement(true),
+                        textAllowOverlap(true))
+                .withFilter(has(POINT_COUNT)));
     }
 
     /**
      * Setup a layer with Android SDK call-outs
      * <p>
-     * title of the feature is used as key for the iconImage
+     * the callout property of the feature names the image drawn by the {@link CalloutRenderer}
      * </p>
      */
     private void setupCalloutLayer(@NonNull Style loadedMapStyle) {
-        loadedMapStyle.addLayer(new SymbolLayer(CALLOUT_LAYER_ID, "SOURCE_ID")
+        callouts.setStyle(loadedMapStyle);
+        loadedMapStyle.addLayer(new SymbolLayer(CALLOUT_LAYER_ID, SELECTED_SOURCE_ID)
                 .withProperties(
-                        /* show image with id title based on the value of the title feature property */
-                        iconImage("{title}"),
+                        /* show the image named by the callout feature property */
+                        iconImage("{" + BUS_CALLOUT + "}"),
 
                         /* set anchor of icon to bottom-left */
                         iconAnchor(Property.ICON_ANCHOR_BOTTOM_LEFT),
@@ -277,11 +925,12 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     }
 
     private void setupRecyclerView() {
-        RecyclerView.Adapter adapter = new LocationRecyclerViewAdapter(this, featureCollection.features());
+        cardAdapter = new LocationRecyclerViewAdapter(this);
         final LinearLayoutManager layoutManager = new LinearLayoutManager(this, LinearLayoutManager.HORIZONTAL, false);
         recyclerView.setLayoutManager(layoutManager);
         recyclerView.setItemAnimator(new DefaultItemAnimator());
-        recyclerView.setAdapter(adapter);
+        recyclerView.setAdapter(cardAdapter);
+        scheduleCardPublish();
         recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
             public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
@@ -291,6 +940,12 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                     setSelected(index, false);
                 }
             }
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                super.onScrolled(recyclerView, dx, dy);
+                callouts.prerender(cardAdapter, layoutManager.findFirstVisibleItemPosition(), CALLOUT_PRERENDER_RADIUS);
+            }
         });
         SnapHelper snapHelper = new PagerSnapHelper();
         snapHelper.attachToRecyclerView(recyclerView);
@@ -299,18 +954,78 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
 
     @Override
     public boolean onMapClick(@NonNull LatLng point) {
-        PointF screenPoint = mapboxMap.getProjection().toScreenLocation(point);
-        return handleClickBus(screenPoint);
+        return handleClickBus(point);
     }
 
-    private boolean handleClickBus(PointF screenPoint) {
-        List<Feature> features = mapboxMap.queryRenderedFeatures(screenPoint, BUS_LAYER_ID);
-        if (!features.isEmpty()) {
-            for (int i = 0; i < featureCollection.features().size(); i++) {
-                if (featureCollection.features().get(i).id().equals(features.get(0).id())) {
-                    setSelected(i, true);
-                }
-            }
+    @Override
+    public void onCameraMove() {
+        updateViewport();
+    }
+
+    /**
+     * Hands the camera to the user as soon as they touch the map, ending any transition or
+     * following.
+     */
+    @Override
+    public void onCameraMoveStarted(int reason) {
+        if (reason == REASON_API_GESTURE) {
+            camera.stop();
+        }
+    }
+
+    /**
+     * Follows the camera with the culling viewport, republishing so buses coming into view join
+     * the source straight away.
+     */
+    private void updateViewport() {
+        cameraZoom = mapboxMap.getCameraPosition().zoom;
+        LatLngBounds bounds = mapboxMap.getProjection().getVisibleRegion().latLngBounds;
+        viewport.set(bounds.getLonWest(), bounds.getLatSouth(), bounds.getLonEast(), bounds.getLatNorth());
+        vehicles.partitions().markAllDirty();
+        invalidateSource();
+    }
+
+    /**
+     * Moves the feed subscriptions to the channels covering the viewport and the route of the
+     * selected bus, and comes back when a channel left behind is due to be dropped.
+     */
+    private void updateSubscriptions() {
+        if (subscriptions == null) {
+            return;
+        }
+        mainHandler.removeCallbacks(subscriptionTask);
+        followedRoutes.clear();
+        int selected = getSelectedSlot();
+        if (selected != VehicleStore.NO_SLOT) {
+            followedRoutes.add(vehicles.routeId(selected));
+        }
+        long nextDrop = subscriptions.update(viewport, followedRoutes, SystemClock.uptimeMillis());
+        if (nextDrop >= 0) {
+            mainHandler.postAtTime(subscriptionTask, nextDrop);
+        }
+    }
+
+    @Override
+    public void onCameraIdle() {
+        CameraPosition cameraPosition = mapboxMap.getCameraPosition();
+        trail.setZoom(cameraPosition.zoom, cameraPosition.target.getLatitude());
+        updateSubscriptions();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Source partitions " + vehicles.partitions().describe());
+        }
+    }
+
+    /**
+     * Resolves a tap against the spatial index of current bus positions rather than querying
+     * rendered features.
+     */
+    private boolean handleClickBus(LatLng point) {
+        double radiusMetres = BUS_HIT_RADIUS_PIXELS
+                * mapboxMap.getProjection().getMetersPerPixelAtLatitude(point.getLatitude());
+        int slot = vehicles.grid().nearest(point.getLongitude(), point.getLatitude(), radiusMetres);
+        if (slot != VehicleStore.NO_SLOT) {
+            int index = cardAdapter == null ? -1 : cardAdapter.indexOf(vehicles.id(slot));
+            setSelectedSlot(slot, index, index >= 0);
 
             return true;
         } else {
@@ -330,30 +1045,65 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
      * @param withScroll indicates if the recyclerView position should be updated
      */
     private void setSelected(int index, boolean withScroll) {
+        VehicleCardList.Card card = cardAdapter == null ? null : cardAdapter.cardAt(index);
+        int slot = card == null ? VehicleStore.NO_SLOT : vehicles.slotOf(card.id);
+        if (slot != VehicleStore.NO_SLOT) {
+            setSelectedSlot(slot, index, withScroll);
+        }
+    }
+
+    /**
+     * Selects a vehicle given its store slot and its index in the card strip.
+     */
+    private void setSelectedSlot(int slot, int index, boolean withScroll) {
         if (recyclerView.getVisibility() == View.GONE) {
             recyclerView.setVisibility(View.VISIBLE);
         }
 
-        deselectAll(false);
+        resetSelection(false);
 
-        Feature feature = this.featureCollection.features().get(index);
-        selectFeature(feature);
-        animateCameraToSelection(feature);
-        refreshSource();
+        selectVehicle(slot);
+        trail.setZoom(mapboxMap.getCameraPosition().zoom, vehicles.latitude(slot));
+        seedTrail(slot);
+        animateCameraToSelection();
+        invalidateSource();
+        updateSubscriptions();
 
+        if (index >= 0) {
+            callouts.prerender(cardAdapter, index, CALLOUT_PRERENDER_RADIUS);
+        }
         if (withScroll) {
             recyclerView.scrollToPosition(index);
         }
     }
 
+    /**
+     * Starts the trail of a newly selected bus from its recent fixes, so it shows where the bus
+     * has been rather than starting at the moment it was tapped.
+     */
+    private void seedTrail(int slot) {
+        PositionHistory history = vehicles.history();
+        for (int i = 0; i < history.size(slot); i++) {
+            trail.add(history.longitude(slot, i), history.latitude(slot, i));
+        }
+    }
+
     /**
      * Deselects the state of all the features
      */
     private void deselectAll(boolean hideRecycler) {
-        markerLinePointList.clear();
-        for (Feature feature : buses.values()) {
-            feature.properties().addProperty(BUS_SELECTED, false);
-        }
+        resetSelection(hideRecycler);
+        updateSubscriptions();
+    }
+
+    /**
+     * Clears the selection without resubscribing, for callers that select another bus straight
+     * after and subscribe once for it.
+     */
+    private void resetSelection(boolean hideRecycler) {
+        trail.reset();
+        vehicles.clearSelection();
+        camera.stopFollowing();
 
         if (hideRecycler) {
             recyclerView.setVisibility(View.GONE);
@@ -361,55 +1111,57 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     }
 
     /**
-     * Selects the state of a feature
+     * Selects the state of a vehicle
      *
-     * @param feature the feature to be selected.
+     * @param slot the store slot of the vehicle to be selected.
      */
-    private void selectFeature(Feature feature) {
-        feature.properties().addProperty(BUS_SELECTED, true);
+    private void selectVehicle(int slot) {
+        vehicles.select(slot);
     }
 
-    private Feature getSelectedFeature() {
-        if (featureCollection != null) {
-            for (Feature feature : buses.values()) {
-                if (feature.getBooleanProperty(BUS_SELECTED)) {
-                    return feature;
-                }
-            }
-        }
-
-        return null;
+    private int getSelectedSlot() {
+        return vehicles.selectedSlot();
     }
 
     /**
-     * Animate camera to a feature.
+     * Moves the camera onto the selected vehicle and keeps following it. A transition already
+     * under way is retargeted rather than restarted.
      *
-     * @param feature the feature to animate to
+     * @param newZoom the zoom to end at
      */
-    private void animateCameraToSelection(Feature feature, double newZoom) {
-        CameraPosition cameraPosition = mapboxMap.getCameraPosition();
-
-        if (animatorSet != null) {
-            animatorSet.cancel();
+    private void animateCameraToSelection(double newZoom) {
+        if (!camera.isAnimating() && !camera.isFollowing()) {
+            CameraPosition cameraPosition = mapboxMap.getCameraPosition();
+            camera.jumpTo(cameraPosition.target.getLongitude(), cameraPosition.target.getLatitude(),
+                    cameraPosition.zoom, cameraPosition.bearing, cameraPosition.tilt);
         }
+        camera.followSelected(newZoom);
+        frameScheduler.schedule();
+    }
 
-        animatorSet = new AnimatorSet();
-        animatorSet.playTogether(
-                createLatLngAnimator(cameraPosition.target, convertToLatLng(feature)),
-                createZoomAnimator(cameraPosition.zoom, newZoom)
-        );
-        animatorSet.start();
+    /**
+     * Moves the map to the camera controller, the only place the camera is moved from.
+     */
+    private void moveCamera() {
+        mapboxMap.moveCamera(CameraUpdateFactory.newCameraPosition(new CameraPosition.Builder()
+                .target(new LatLng(camera.latitude(), camera.longitude()))
+                .zoom(camera.zoom())
+                .bearing(camera.bearing())
+                .tilt(camera.tilt())
+                .build()));
     }
 
-    private void animateCameraToSelection(Feature feature) {
+    private void animateCameraToSelection() {
         double zoom = 16.0f;
-        animateCameraToSelection(feature, zoom);
+        animateCameraToSelection(zoom);
     }
 
     private void setActivityStep(@ActivityStep int activityStep) {
-        Feature selectedFeature = getSelectedFeature();
+        int selectedSlot = getSelectedSlot();
         double zoom = stepZoomMap.get(activityStep);
-        animateCameraToSelection(selectedFeature, zoom);
+        if (selectedSlot != VehicleStore.NO_SLOT) {
+            animateCameraToSelection(zoom);
+        }
 
         currentStep = activityStep;
     }
@@ -418,6 +1170,10 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     protected void onStart() {
         super.onStart();
         mapView.onStart();
+        mainHandler.postDelayed(snapshotTask, SNAPSHOT_INTERVAL);
+        if (debugOverlay != null) {
+            mainHandler.post(debugOverlayTask);
+        }
     }
 
     @Override
@@ -436,12 +1192,44 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     protected void onStop() {
         super.onStop();
         mapView.onStop();
+        mainHandler.removeCallbacks(snapshotTask);
+        mainHandler.removeCallbacks(debugOverlayTask);
+        saveSnapshot();
     }
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         mapView.onSaveInstanceState(outState);
+        saveSnapshot();
+    }
+
+    /**
+     * @return the pipeline metrics, one line per stage, a line of counters, the quality level and
+     * the feed channels
+     */
+    public String dumpMetrics() {
+        return metrics.dump() + quality.describe() + '\n'
+                + (subscriptions != null ? subscriptions.describe() + '\n' : "");
+    }
+
+    /**
+     * Adds the pipeline metrics to {@code adb shell dumpsys activity}. Passing
+     * {@code --reset-metrics} clears the histograms after they are printed.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("Pipeline metrics:");
+        for (String line : dumpMetrics().split("\n")) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.println(line);
+        }
+        if (args != null && Arrays.asList(args).contains(DUMP_RESET_METRICS)) {
+            metrics.reset();
+        }
     }
 
     @Override
@@ -453,8 +1241,24 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        frameScheduler.cancel();
+        mainHandler.removeCallbacks(cardPublishTask);
+        mainHandler.removeCallbacks(subscriptionTask);
+        callouts.close();
+        if (messageSource != null) {
+            messageSource.stop();
+        }
+        closeFeedRecorder();
+        if (feedBootstrap != null) {
+            feedBootstrap.cancel();
+        }
+        fleetSnapshot.close();
+        trajectoryLog.close();
         if (mapboxMap != null) {
             mapboxMap.removeOnMapClickListener(this);
+            mapboxMap.removeOnCameraIdleListener(this);
+            mapboxMap.removeOnCameraMoveListener(this);
+            mapboxMap.removeOnCameraMoveStartedListener(this);
         }
         mapView.onDestroy();
     }
@@ -464,121 +1268,85 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         if (currentStep == STEP_LOADING || currentStep == STEP_READY) {
             setActivityStep(STEP_INITIAL);
             deselectAll(true);
-            refreshSource();
+            invalidateSource();
         } else {
             super.onBackPressed();
         }
     }
 
-    private void animate(String id) {
-        if(currentBusStep.get(id) == null) {
-            currentBusStep.put(id, 0);
-        }
-        Integer routeIndex = currentBusStep.get(id);
-
-        if ((busPoints.get(id).size() - 2 > routeIndex)) {
-            Point startPos = busPoints.get(id).get(routeIndex);
-            Point endPos = busPoints.get(id).get(routeIndex + 1);
-            busIsMoving.put(id, true);
-            currentAnimator.put(id, createLatLngAnimatorForTracking(id, startPos, endPos));
-            currentAnimator.get(id).start();
-
-            currentBusStep.put(id, routeIndex + 1);
-        } else {
-            busIsMoving.put(id, false);
-        }
-    }
-
-    private static class PointEvaluator implements TypeEvaluator<Point> {
-
-        @Override
-        public Point evaluate(float fraction, Point startValue, Point endValue) {
-            return Point.fromLngLat(
-                    startValue.longitude() + ((endValue.longitude() - startValue.longitude()) * fraction),
-                    startValue.latitude() + ((endValue.latitude() - startValue.latitude()) * fraction)
-            );
+    /**
+     * @return the current time in the epoch of feed timestamps, which during playback is the
+     * time being replayed and otherwise the clock of the message source
+     */
+    private long feedTimeMillis() {
+        if (playback != null) {
+            return playback.playbackTime(SystemClock.uptimeMillis());
         }
-    }
-
-    private Animator createLatLngAnimatorForTracking(final String id, Point currentPosition, Point targetPosition) {
-        ValueAnimator latLngAnimator = ValueAnimator.ofObject(new PointEvaluator(), currentPosition, targetPosition);
-        latLngAnimator.setDuration(40000L);
-        latLngAnimator.setInterpolator(new LinearInterpolator());
-        latLngAnimator.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                super.onAnimationEnd(animation);
-                animate(id);
-            }
-        });
-        latLngAnimator.addUpdateListener(animation -> {
-            Point point = (Point) animation.getAnimatedValue();
-            buses.put(id, Feature.fromGeometry(
-                    point,
-                    buses.get(id).properties(), id));
-
-            Boolean isSelected = buses.get(id).getBooleanProperty(BUS_SELECTED);
-
-            if(isSelected != null && isSelected == true) {
-                markerLinePointList.add(point);
-                lineSource.setGeoJson(Feature.fromGeometry(LineString.fromLngLats(markerLinePointList)));
-            }
-            refreshSource();
-        });
-
-        return latLngAnimator;
-    }
-
-    private LatLng convertToLatLng(Feature feature) {
-        Point symbolPoint = (Point) feature.geometry();
-        return new LatLng(symbolPoint.latitude(), symbolPoint.longitude());
-    }
-
-    private Animator createLatLngAnimator(LatLng currentPosition, LatLng targetPosition) {
-        ValueAnimator latLngAnimator = ValueAnimator.ofObject(new LatLngEvaluator(), currentPosition, targetPosition);
-        latLngAnimator.setDuration(CAMERA_ANIMATION_TIME);
-        latLngAnimator.setInterpolator(new FastOutSlowInInterpolator());
-        latLngAnimator.addUpdateListener(animation -> mapboxMap.moveCamera(CameraUpdateFactory.newLatLng((LatLng) animation.getAnimatedValue())));
-        return latLngAnimator;
-    }
-
-    private Animator createZoomAnimator(double currentZoom, double targetZoom) {
-        ValueAnimator zoomAnimator = ValueAnimator.ofFloat((float) currentZoom, (float) targetZoom);
-        zoomAnimator.setDuration(CAMERA_ANIMATION_TIME);
-        zoomAnimator.setInterpolator(new FastOutSlowInInterpolator());
-        zoomAnimator.addUpdateListener(animation -> mapboxMap.moveCamera(CameraUpdateFactory.zoomTo((Float) animation.getAnimatedValue())));
-        return zoomAnimator;
+        return messageSource != null ? messageSource.currentTimeMillis() : System.currentTimeMillis();
     }
 
     /**
-     * Helper class to evaluate LatLng objects with a ValueAnimator
+     * Extends the trail of the selected bus with its position for this frame, pushing it to the
+     * line source no more often than {@link #TRAIL_PUBLISH_INTERVAL}.
      */
-    private static class LatLngEvaluator implements TypeEvaluator<LatLng> {
-
-        private final LatLng latLng = new LatLng();
-
-        @Override
-        public LatLng evaluate(float fraction, LatLng startValue, LatLng endValue) {
-            latLng.setLatitude(startValue.getLatitude()
-                    + ((endValue.getLatitude() - startValue.getLatitude()) * fraction));
-            latLng.setLongitude(startValue.getLongitude()
-                    + ((endValue.getLongitude() - startValue.getLongitude()) * fraction));
-            return latLng;
+    private void updateSelectedTrail() {
+        int slot = getSelectedSlot();
+        if (slot == VehicleStore.NO_SLOT || lineSource == null || quality.atLeast(QualityController.NO_TRAIL)) {
+            return;
+        }
+        if (vehicles.isMoving(slot)) {
+            trail.add(vehicles.longitude(slot), vehicles.latitude(slot));
+        }
+        if (trail.shouldPublish(SystemClock.uptimeMillis())) {
+            long start = System.nanoTime();
+            upload(lineSource, trail.write(fleetGeoJson.writer()), start);
         }
     }
 
     /**
-     * RecyclerViewAdapter adapting features to cards.
+     * RecyclerViewAdapter adapting tracked vehicles to cards. New card lists are diffed on a
+     * background thread and applied as the minimal set of item changes.
      */
     static class LocationRecyclerViewAdapter extends
             RecyclerView.Adapter<MainActivity.LocationRecyclerViewAdapter.MyViewHolder> {
 
-        private List<Feature> featureCollection;
+        private final AsyncListDiffer<VehicleCardList.Card> differ = new AsyncListDiffer<>(this, VehicleCardList.DIFF);
         private MainActivity activity;
+        /* card index by vehicle id, rebuilt lazily for the list it was built from */
+        private final HashMap<String, Integer> indexById = new HashMap<>();
+        private List<VehicleCardList.Card> indexedList;
 
-        LocationRecyclerViewAdapter(MainActivity activity, List<Feature> featureList) {
+        LocationRecyclerViewAdapter(MainActivity activity) {
             this.activity = activity;
-            this.featureCollection = featureList;
+            setHasStableIds(true);
+        }
+
+        void submitList(List<VehicleCardList.Card> cards) {
+            differ.submitList(cards);
+        }
+
+        /**
+         * @return the card shown at an index, or null if there is none
+         */
+        VehicleCardList.Card cardAt(int index) {
+            List<VehicleCardList.Card> cards = differ.getCurrentList();
+            return index >= 0 && index < cards.size() ? cards.get(index) : null;
+        }
+
+        /**
+         * @return the index of the card of a vehicle, or -1 if it has no card yet
+         */
+        int indexOf(String id) {
+            List<VehicleCardList.Card> cards = differ.getCurrentList();
+            if (cards != indexedList) {
+                indexById.clear();
+                for (int i = 0; i < cards.size(); i++) {
+                    indexById.put(cards.get(i).id, i);
+                }
+                indexedList = cards;
+            }
+            Integer index = indexById.get(id);
+            return index == null ? -1 : index;
         }
 
         @Override
@@ -590,16 +1358,21 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
 
         @Override
         public void onBindViewHolder(LocationRecyclerViewAdapter.MyViewHolder holder, int position) {
-            Feature feature = featureCollection.get(position);
-            holder.title.setText("Bus: " + feature.id());
-            holder.description.setText("This is the " + feature.id() + " on trip " + feature.getStringProperty("tripId"));
-            holder.poi.setText("Route ID: " + feature.getStringProperty("routeId"));
-            holder.style.setText("Date" + feature.getStringProperty("startDate"));
+            VehicleCardList.Card card = differ.getCurrentList().get(position);
+            holder.title.setText(card.title);
+            holder.description.setText(card.description);
+            holder.poi.setText(card.route);
+            holder.style.setText(card.date);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return differ.getCurrentList().get(position).stableId;
         }
 
         @Override
         public int getItemCount() {
-            return featureCollection.size();
+            return differ.getCurrentList().size();
         }
 
         /**
@@ -0,0 +1,103 @@
+package com.example.basicmapbox;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a {@link FeedRecording} with the original spacing between messages divided by a
+ * speed-up factor. Recordings of the live feed are made by launching with
+ * {@link MainActivity#EXTRA_RECORD_FILE}.
+ * <p>
+ * The clock of the source starts at the time the first message was received and runs at the
+ * speed-up factor, so the old timestamps inside the replayed payloads look current to everything
+ * downstream. Messages are read and delivered on a thread of the source; a replay that falls
+ * behind delivers the late messages back to back instead of skipping them.
+ * </p>
+ * <p>
+ * A recording holds whatever channels were subscribed when it was made, so subscriptions are
+ * ignored and every recorded message is replayed.
+ * </p>
+ */
+final class ReplayMessageSource implements VehicleMessageSource {
+
+    private static final String TAG = "ReplayMessageSource";
+
+    private final File file;
+    private final double speedUp;
+
+    private volatile boolean stopped;
+    private volatile long originMillis;
+    private volatile long startNanos;
+    private Thread thread;
+
+    /**
+     * @param speedUp how many milliseconds of the recording pass per millisecond of real time
+     */
+    ReplayMessageSource(File file, double speedUp) {
+        this.file = file;
+        this.speedUp = speedUp > 0 ? speedUp : 1.0;
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        FeedRecording.Reader reader = new FeedRecording.Reader(file);
+        thread = new Thread(() -> replay(reader, listener), "feed-replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void subscribe(String channel) {
+    }
+
+    @Override
+    public void unsubscribe(String channel) {
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        if (startNanos == 0) {
+            return System.currentTimeMillis();
+        }
+        return originMillis + (long) ((System.nanoTime() - startNanos) / 1e6 * speedUp);
+    }
+
+    private void replay(FeedRecording.Reader reader, Listener listener) {
+        try {
+            while (!stopped && reader.next()) {
+                if (startNanos == 0) {
+                    originMillis = reader.receivedAtMillis();
+                    startNanos = System.nanoTime();
+                }
+                waitUntil(reader.receivedAtMillis());
+                listener.onMessage(reader.payload());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Replay of " + file + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void waitUntil(long recordingMillis) throws InterruptedException {
+        long delay = recordingMillis - currentTimeMillis();
+        if (delay > 0) {
+            Thread.sleep(Math.max(1L, (long) (delay / speedUp)));
+        }
+    }
+}
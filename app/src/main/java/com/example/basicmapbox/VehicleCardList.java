@@ -0,0 +1,124 @@
+package com.example.basicmapbox;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * List model behind the card strip: one immutable {@link Card} per vehicle, in the order the
+ * vehicles were first seen.
+ * <p>
+ * A card carries the display strings of its vehicle, built once and rebuilt only when the trip
+ * metadata of the vehicle changes, so binding a card concatenates nothing. Publishing compares
+ * each vehicle's trip against its card and returns a fresh immutable list only if a card was
+ * added, removed or replaced. Unchanged cards are the same instances, so the diff can compare
+ * contents by identity.
+ * </p>
+ */
+final class VehicleCardList {
+
+    /**
+     * Everything a card shows for one vehicle.
+     */
+    static final class Card {
+        final long stableId;
+        final String id;
+        final String startDate;
+        final String routeId;
+        final String tripId;
+        final String title;
+        final String description;
+        final String route;
+        final String date;
+
+        Card(long stableId, String id, String startDate, String routeId, String tripId) {
+            this.stableId = stableId;
+            this.id = id;
+            this.startDate = startDate;
+            this.routeId = routeId;
+            this.tripId = tripId;
+            this.title = "Bus: " + id;
+            this.description = "This is the " + id + " on trip " + tripId;
+            this.route = "Route ID: " + routeId;
+            this.date = "Date" + startDate;
+        }
+
+        boolean hasTrip(String startDate, String routeId, String tripId) {
+            return equal(this.startDate, startDate) && equal(this.routeId, routeId) && equal(this.tripId, tripId);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * Matches cards by vehicle; a replaced card always has new contents.
+     */
+    static final DiffUtil.ItemCallback<Card> DIFF = new DiffUtil.ItemCallback<Card>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Card oldItem, @NonNull Card newItem) {
+            return oldItem.stableId == newItem.stableId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Card oldItem, @NonNull Card newItem) {
+            return oldItem == newItem;
+        }
+    };
+
+    private static final class Entry {
+        Card card;
+        int generation;
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long nextStableId;
+    private int generation;
+
+    /**
+     * Brings the cards in line with the store.
+     *
+     * @return the new list of cards, or null if no card changed since the last call
+     */
+    List<Card> publish(VehicleStore store) {
+        generation++;
+        boolean changed = false;
+        for (int i = 0, size = store.size(); i < size; i++) {
+            int slot = store.slotAt(i);
+            String id = store.id(slot);
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(id, entry);
+                entry.card = new Card(nextStableId++, id, store.startDate(slot), store.routeId(slot), store.tripId(slot));
+                changed = true;
+            } else if (!entry.card.hasTrip(store.startDate(slot), store.routeId(slot), store.tripId(slot))) {
+                entry.card = new Card(entry.card.stableId, id, store.startDate(slot), store.routeId(slot), store.tripId(slot));
+                changed = true;
+            }
+            entry.generation = generation;
+        }
+        if (entries.size() != store.size()) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                if (it.next().generation != generation) {
+                    it.remove();
+                    changed = true;
+                }
+            }
+        }
+        if (!changed) {
+            return null;
+        }
+        ArrayList<Card> cards = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            cards.add(entry.card);
+        }
+        return Collections.unmodifiableList(cards);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.basicmapbox;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Fixtures shared by the benchmarks: fleets of fixes generated by {@link SyntheticMessageSource},
+ * and recorded payloads read from the {@link FeedRecording} named by the
+ * {@code benchmark.recording} system property or from the one bundled with the benchmarks.
+ */
+final class BenchmarkFleet {
+
+    static final double LONGITUDE = -72.6851;
+    static final double LATITUDE = 41.7637;
+    static final double RADIUS_METRES = 15000.0;
+    static final long SEED = 1L;
+    /* the feed time of the first generated round */
+    static final long START_SECONDS = 1600000000L;
+    /* the recording decoded when no other is given */
+    static final String FIXTURE = "/feed.rec";
+    private static final int FIXTURE_VEHICLES = 64;
+    private static final int FIXTURE_ROUNDS = 8;
+
+    private BenchmarkFleet() {
+    }
+
+    /**
+     * @return {@code rounds} reports of every vehicle one second apart, round by round
+     */
+    static VehicleFix[][] synthetic(int vehicleCount, int rounds) {
+        SyntheticMessageSource source = new SyntheticMessageSource(vehicleCount, 1.0,
+                LONGITUDE, LATITUDE, RADIUS_METRES, SEED);
+        GtfsRealtimeVehicleDecoder decoder = new GtfsRealtimeVehicleDecoder(new StringPool(8192));
+        VehicleFix[][] fixes = new VehicleFix[rounds][vehicleCount];
+        for (int round = 0; round < rounds; round++) {
+            for (int vehicle = 0; vehicle < vehicleCount; vehicle++) {
+                VehicleFix fix = new VehicleFix();
+                decoder.decode(source.report(vehicle, START_SECONDS + round), fix);
+                fixes[round][vehicle] = fix;
+            }
+        }
+        return fixes;
+    }
+
+    /**
+     * @return up to {@code limit} payloads exactly as they were recorded, from the recording named
+     * by {@code benchmark.recording} or otherwise from the bundled {@link #FIXTURE}
+     */
+    static Object[] recorded(int limit) throws IOException {
+        String file = System.getProperty("benchmark.recording");
+        String name = file != null ? file : FIXTURE;
+        ArrayList<Object> payloads = new ArrayList<>();
+        try (FeedRecording.Reader reader = file != null
+                ? new FeedRecording.Reader(new File(file))
+                : new FeedRecording.Reader(open(FIXTURE), FIXTURE)) {
+            while (payloads.size() < limit && reader.next()) {
+                payloads.add(reader.payload());
+            }
+        }
+        if (payloads.isEmpty()) {
+            throw new IOException("No messages in " + name);
+        }
+        return payloads.toArray();
+    }
+
+    private static InputStream open(String resource) throws IOException {
+        InputStream stream = BenchmarkFleet.class.getResourceAsStream(resource);
+        if (stream == null) {
+            throw new FileNotFoundException(resource);
+        }
+        return stream;
+    }
+
+    /**
+     * Writes the bundled fixture: {@link #FIXTURE_ROUNDS} reports of {@link #FIXTURE_VEHICLES}
+     * generated vehicles a second apart, even vehicles as JSON text and odd ones as protobuf, so
+     * every decoder has recorded input.
+     *
+     * @param args the file to write, src/jmh/resources/feed.rec when regenerating it
+     */
+    public static void main(String[] args) throws IOException {
+        GtfsRealtimeVehicleEncoder encoder = new GtfsRealtimeVehicleEncoder();
+        VehicleFix[][] rounds = synthetic(FIXTURE_VEHICLES, FIXTURE_ROUNDS);
+        try (FeedRecording.Writer writer = new FeedRecording.Writer(new File(args[0]))) {
+            for (int round = 0; round < rounds.length; round++) {
+                long receivedAt = (START_SECONDS + round) * 1000L;
+                for (int vehicle = 0; vehicle < FIXTURE_VEHICLES; vehicle++) {
+                    VehicleFix fix = rounds[round][vehicle];
+                    writer.write(receivedAt, vehicle % 2 == 0 ? json(fix) : encoder.encode(fix));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies every round of fixes in order.
+     */
+    static void populate(VehicleStore store, InterpolationEngine engine, VehicleFix[][] rounds) {
+        for (VehicleFix[] round : rounds) {
+            for (VehicleFix fix : round) {
+                apply(store, engine, fix);
+            }
+        }
+    }
+
+    /**
+     * Applies one fix the way the map applies a drained update.
+     */
+    static void apply(VehicleStore store, InterpolationEngine engine, VehicleFix fix) {
+        int slot = store.slotOf(fix.id);
+        if (slot == VehicleStore.NO_SLOT) {
+            slot = store.intern(fix.id);
+        }
+        if (engine.update(slot, fix.longitude, fix.latitude, fix.timestamp, fix.bearing, fix.speed)) {
+            store.history().append(slot, fix.longitude, fix.latitude, fix.timestamp);
+        }
+        store.setTrip(slot, fix.startDate, fix.routeId, fix.tripId);
+    }
+
+    /**
+     * @return a viewport over the whole generated area for {@code city}, or about a kilometre
+     * across its centre for {@code street}
+     */
+    static Viewport viewport(String name) {
+        double metres = "street".equals(name) ? 500.0 : RADIUS_METRES;
+        double halfLat = metres / 111320.0;
+        double halfLng = halfLat / Math.cos(Math.toRadians(LATITUDE));
+        Viewport viewport = new Viewport(0);
+        viewport.set(LONGITUDE - halfLng, LATITUDE - halfLat, LONGITUDE + halfLng, LATITUDE + halfLat);
+        return viewport;
+    }
+
+    /**
+     * @return the JSON form of a fix as the feed sends it, with its float coordinates
+     */
+    static String json(VehicleFix fix) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"id\":\"").append(fix.id).append("\",\"vehicle\":{\"trip\":{");
+        int start = json.length();
+        appendString(json, start, "tripId", fix.tripId);
+        appendString(json, start, "startDate", fix.startDate);
+        appendString(json, start, "routeId", fix.routeId);
+        json.append("},\"position\":{");
+        start = json.length();
+        appendNumber(json, start, "latitude", fix.latitude);
+        appendNumber(json, start, "longitude", fix.longitude);
+        appendNumber(json, start, "bearing", fix.bearing);
+        appendNumber(json, start, "speed", fix.speed);
+        json.append("},\"timestamp\":\"").append(fix.timestamp / 1000L).append("\"}}");
+        return json.toString();
+    }
+
+    private static void appendString(StringBuilder json, int start, String name, String value) {
+        if (value != null) {
+            json.append(json.length() > start ? "," : "").append('"').append(name).append("\":\"")
+                    .append(value).append('"');
+        }
+    }
+
+    private static void appendNumber(StringBuilder json, int start, String name, double value) {
+        if (!Double.isNaN(value)) {
+            json.append(json.length() > start ? "," : "").append('"').append(name).append("\":")
+                    .append((float) value);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.basicmapbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PointClusterer} rebuilt from scratch against kept up to date incrementally, when a tenth
+ * of the fleet reports between two reads of the clusters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClusterBenchmark {
+
+    private static final int MAX_ZOOM = 13;
+    private static final int RADIUS_PIXELS = 64;
+    private static final int TILE_SIZE = 512;
+    private static final double CITY_ZOOM = 11.0;
+
+    @Param({"1000", "10000", "50000"})
+    public int fleetSize;
+
+    private double[][] lng;
+    private double[][] lat;
+    private PointClusterer clusters;
+    private int next;
+    private int round;
+
+    private int reported;
+    private final PointClusterer.Callback counter = new PointClusterer.Callback() {
+        @Override
+        public void onPoint(int slot) {
+            reported++;
+        }
+
+        @Override
+        public void onCluster(long id, int count, double longitude, double latitude) {
+            reported++;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        VehicleFix[][] rounds = BenchmarkFleet.synthetic(fleetSize, 2);
+        lng = new double[2][fleetSize];
+        lat = new double[2][fleetSize];
+        for (int r = 0; r < 2; r++) {
+            for (int slot = 0; slot < fleetSize; slot++) {
+                lng[r][slot] = rounds[r][slot].longitude;
+                lat[r][slot] = rounds[r][slot].latitude;
+            }
+        }
+        clusters = new PointClusterer(MAX_ZOOM, RADIUS_PIXELS, TILE_SIZE);
+        for (int slot = 0; slot < fleetSize; slot++) {
+            clusters.update(slot, lng[0][slot], lat[0][slot]);
+        }
+    }
+
+    @Benchmark
+    public int rebuild() {
+        PointClusterer rebuilt = new PointClusterer(MAX_ZOOM, RADIUS_PIXELS, TILE_SIZE);
+        for (int slot = 0; slot < fleetSize; slot++) {
+            rebuilt.update(slot, lng[0][slot], lat[0][slot]);
+        }
+        reported = 0;
+        rebuilt.getClusters(CITY_ZOOM, counter);
+        return reported;
+    }
+
+    @Benchmark
+    public int incremental() {
+        for (int i = 0, moved = Math.max(1, fleetSize / 10); i < moved; i++) {
+            if (next == 0) {
+                round ^= 1;
+            }
+            clusters.update(next, lng[round][next], lat[round][next]);
+            next = (next + 1) % fleetSize;
+        }
+        reported = 0;
+        clusters.getClusters(CITY_ZOOM, counter);
+        return reported;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.basicmapbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the buses inside a viewport, by querying the {@link SpatialGrid} and by testing every
+ * live vehicle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CullingBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int fleetSize;
+
+    @Param({"city", "street"})
+    public String viewport;
+
+    private VehicleStore store;
+    private Viewport bounds;
+    private int[] visible;
+
+    @Setup
+    public void setUp() {
+        store = new VehicleStore(16);
+        InterpolationEngine engine = new InterpolationEngine(store, () -> BenchmarkFleet.START_SECONDS * 1000L);
+        BenchmarkFleet.populate(store, engine, BenchmarkFleet.synthetic(fleetSize, 1));
+        bounds = BenchmarkFleet.viewport(viewport);
+        visible = new int[fleetSize];
+    }
+
+    @Benchmark
+    public int grid() {
+        return store.grid().query(bounds.west(), bounds.south(), bounds.east(), bounds.north(), visible);
+    }
+
+    @Benchmark
+    public int scan() {
+        int count = 0;
+        for (int i = 0, size = store.size(); i < size; i++) {
+            int slot = store.slotAt(i);
+            if (bounds.contains(store.longitude(slot), store.latitude(slot))) {
+                visible[count++] = slot;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.basicmapbox;
+
+import com.google.gson.JsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one recorded message into a {@link VehicleFix}, per payload format. {@code protobuf}
+ * decodes the binary payloads of the recording and {@code json} its text payloads, both as they
+ * were recorded; {@code gson-tree} is the cost of the text payloads once Ably has parsed them,
+ * {@code gson-text} includes that parse, and {@code recorded} decodes every payload in order the
+ * way the feed does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(DecodeBenchmark.MESSAGES)
+public class DecodeBenchmark {
+
+    static final int MESSAGES = 4096;
+
+    @Param({"protobuf", "json", "gson-tree", "gson-text", "recorded"})
+    public String format;
+
+    private final Object[] payloads = new Object[MESSAGES];
+    private final VehicleFix fix = new VehicleFix();
+    private VehicleMessageDecoder decoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        ArrayList<Object> recorded = new ArrayList<>();
+        for (Object payload : BenchmarkFleet.recorded(MESSAGES)) {
+            boolean binary = payload instanceof byte[];
+            if ("recorded".equals(format) || binary == "protobuf".equals(format)) {
+                recorded.add("gson-tree".equals(format) ? JsonParser.parseString((String) payload) : payload);
+            }
+        }
+        if (recorded.isEmpty()) {
+            throw new IOException("No payloads to decode as " + format);
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            payloads[i] = recorded.get(i % recorded.size());
+        }
+        GsonVehicleDecoder tree = new GsonVehicleDecoder(new StringPool(8192));
+        switch (format) {
+            case "protobuf":
+                decoder = new GtfsRealtimeVehicleDecoder(new StringPool(8192));
+                break;
+            case "json":
+                decoder = new StreamingJsonVehicleDecoder(new StringPool(8192));
+                break;
+            case "gson-tree":
+                decoder = tree;
+                break;
+            case "gson-text":
+                decoder = (payload, out) -> tree.decode(JsonParser.parseString((String) payload), out);
+                break;
+            case "recorded":
+                decoder = new FeedPayloadDecoder();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    @Benchmark
+    public int decode() {
+        int decoded = 0;
+        for (Object payload : payloads) {
+            if (decoder.decode(payload, fix)) {
+                decoded++;
+            }
+        }
+        return decoded;
+    }
+}
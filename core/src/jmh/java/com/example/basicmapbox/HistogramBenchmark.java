@@ -0,0 +1,45 @@
+package com.example.basicmapbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost {@link LatencyHistogram} adds to every timed stage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(HistogramBenchmark.VALUES)
+public class HistogramBenchmark {
+
+    static final int VALUES = 1024;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final long[] values = new long[VALUES];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkFleet.SEED);
+        for (int i = 0; i < VALUES; i++) {
+            /* spread over nanoseconds to seconds */
+            values[i] = (long) Math.pow(10, random.nextDouble() * 9);
+        }
+    }
+
+    @Benchmark
+    public long record() {
+        for (long value : values) {
+            histogram.record(value);
+        }
+        return histogram.count();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.basicmapbox;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the bus sources with {@link FleetGeoJson}: every partition at street zoom, and the
+ * clustered source at city zoom. The size of each payload is reported next to its time, as the
+ * {@code chars} and {@code charsPerBus} counters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    private static final double CITY_ZOOM = 11.0;
+
+    @Param({"1000", "10000", "50000"})
+    public int fleetSize;
+
+    private VehicleStore store;
+    private FleetGeoJson geoJson;
+    private final Viewport unbounded = new Viewport(0);
+
+    /**
+     * The size of the payload written by the last call, reported as is rather than as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        /** Characters written. */
+        public long chars;
+        /** Characters written per bus in the fleet. */
+        public long charsPerBus;
+
+        void set(long length, int buses) {
+            chars = length;
+            charsPerBus = length / Math.max(1, buses);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        store = new VehicleStore(16);
+        InterpolationEngine engine = new InterpolationEngine(store, () -> BenchmarkFleet.START_SECONDS * 1000L);
+        BenchmarkFleet.populate(store, engine, BenchmarkFleet.synthetic(fleetSize, 1));
+        geoJson = new FleetGeoJson(store);
+    }
+
+    /**
+     * @return the total length written, in characters
+     */
+    @Benchmark
+    public long partitions(PayloadSize size) {
+        long length = 0;
+        for (int partition = 0; partition < store.partitions().partitionCount(); partition++) {
+            length += geoJson.partition(partition, unbounded).length();
+        }
+        size.set(length, store.size());
+        return length;
+    }
+
+    @Benchmark
+    public int clusters(PayloadSize size) {
+        int length = geoJson.clusters(CITY_ZOOM, unbounded).length();
+        size.set(length, store.size());
+        return length;
+    }
+}
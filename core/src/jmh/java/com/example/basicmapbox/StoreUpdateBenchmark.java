@@ -0,0 +1,70 @@
+package com.example.basicmapbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One report from every vehicle of the fleet, staged in the {@link VehicleUpdateBuffer} and
+ * drained into the store and the engine as a frame does, and the trip attributes of those
+ * reports alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreUpdateBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int fleetSize;
+
+    private VehicleFix[][] rounds;
+    private VehicleStore store;
+    private InterpolationEngine engine;
+    private final VehicleUpdateBuffer buffer = new VehicleUpdateBuffer();
+    private VehicleUpdateBuffer.Consumer consumer;
+    private long nowMillis;
+    private int round;
+
+    @Setup
+    public void setUp() {
+        rounds = BenchmarkFleet.synthetic(fleetSize, 2);
+        store = new VehicleStore(16);
+        engine = new InterpolationEngine(store, () -> nowMillis);
+        nowMillis = (BenchmarkFleet.START_SECONDS + 1) * 1000L;
+        BenchmarkFleet.populate(store, engine, rounds);
+        consumer = fix -> BenchmarkFleet.apply(store, engine, fix);
+    }
+
+    @Benchmark
+    public int update() {
+        round++;
+        long timestamp = (BenchmarkFleet.START_SECONDS + 1 + round) * 1000L;
+        for (VehicleFix fix : rounds[round & 1]) {
+            fix.timestamp = timestamp;
+            buffer.offer(fix);
+        }
+        nowMillis = timestamp;
+        return buffer.drain(consumer);
+    }
+
+    /**
+     * Sets the trip of every vehicle from its report, which like most live reports repeats the
+     * trip the vehicle already has.
+     */
+    @Benchmark
+    public int trips() {
+        round++;
+        VehicleFix[] fixes = rounds[round & 1];
+        for (VehicleFix fix : fixes) {
+            store.setTrip(store.slotOf(fix.id), fix.startDate, fix.routeId, fix.tripId);
+        }
+        return store.routeIds().size();
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.basicmapbox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of the {@link InterpolationEngine} with the whole fleet moving: without a viewport,
+ * with one covering the city, and with one at street level that culls most of the fleet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TickBenchmark {
+
+    private static final long FRAME_MILLIS = 16L;
+
+    @Param({"1000", "10000", "50000"})
+    public int fleetSize;
+
+    @Param({"none", "city", "street"})
+    public String viewport;
+
+    private InterpolationEngine engine;
+    private long baseMillis;
+    private long nowMillis;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        VehicleStore store = new VehicleStore(16);
+        engine = new InterpolationEngine(store, () -> nowMillis);
+        baseMillis = (BenchmarkFleet.START_SECONDS + 1) * 1000L;
+        nowMillis = baseMillis;
+        BenchmarkFleet.populate(store, engine, BenchmarkFleet.synthetic(fleetSize, 2));
+        if (!"none".equals(viewport)) {
+            engine.setViewport(BenchmarkFleet.viewport(viewport));
+        }
+    }
+
+    @Benchmark
+    public int tick() {
+        /* cycles through 16 s of extrapolation, after every correction has faded out */
+        nowMillis = baseMillis + 2000L + (frame++ % 1000) * FRAME_MILLIS;
+        return engine.tick();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Maps the distinct values of one vehicle attribute, such as route ids, to small int codes, so
+ * each vehicle holds an int instead of its own reference and a change of value is an int compare.
+ * <p>
+ * Codes are reference counted by the vehicles holding them and reused once no vehicle does, so
+ * trip ids of past days do not pile up. Each value is also kept quoted and escaped as a JSON
+ * string, which is what the GeoJSON sources are written with, so a value is escaped once rather
+ * than on every frame. Looking a value up does not allocate. Not thread safe.
+ * </p>
+ */
+final class AttributeDictionary {
+
+    /** The code of a missing value. */
+    static final int NO_CODE = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] values = new String[INITIAL_CAPACITY];
+    private String[] json = new String[INITIAL_CAPACITY];
+    private int[] references = new int[INITIAL_CAPACITY];
+    private int[] free = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private int highWater;
+    private final StringIntTable codes = new StringIntTable(INITIAL_CAPACITY);
+
+    /**
+     * Takes a reference to the code of a value, adding the value if it is new.
+     *
+     * @return the code, or {@link #NO_CODE} for null
+     */
+    int acquire(String value) {
+        if (value == null) {
+            return NO_CODE;
+        }
+        int code = codes.get(value);
+        if (code != StringIntTable.ABSENT) {
+            references[code]++;
+            return code;
+        }
+        code = freeCount > 0 ? free[--freeCount] : highWater++;
+        ensureCapacity(code + 1);
+        codes.put(value, code);
+        values[code] = value;
+        json[code] = null;
+        references[code] = 1;
+        return code;
+    }
+
+    /**
+     * Drops a reference taken by {@link #acquire(String)}, forgetting the value with its last one.
+     */
+    void release(int code) {
+        if (code == NO_CODE || --references[code] > 0) {
+            return;
+        }
+        codes.remove(values[code]);
+        values[code] = null;
+        json[code] = null;
+        free[freeCount++] = code;
+    }
+
+    /**
+     * Moves a reference from one code to the code of a value, leaving both alone if the value
+     * already has that code.
+     *
+     * @return the code of the value
+     */
+    int replace(int code, String value) {
+        if (code != NO_CODE ? values[code].equals(value) : value == null) {
+            return code;
+        }
+        int newCode = acquire(value);
+        release(code);
+        return newCode;
+    }
+
+    /**
+     * @return the value of a code, or null for {@link #NO_CODE}
+     */
+    String value(int code) {
+        return code == NO_CODE ? null : values[code];
+    }
+
+    /**
+     * @return the value of a code as a quoted JSON string
+     */
+    String json(int code) {
+        String quoted = json[code];
+        if (quoted == null) {
+            quoted = GeoJsonWriter.quote(values[code]);
+            json[code] = quoted;
+        }
+        return quoted;
+    }
+
+    /**
+     * @return the number of distinct values held
+     */
+    int size() {
+        return codes.size();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= values.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, values.length * 2);
+        values = Arrays.copyOf(values, newCapacity);
+        json = Arrays.copyOf(json, newCapacity);
+        references = Arrays.copyOf(references, newCapacity);
+        free = Arrays.copyOf(free, newCapacity);
+    }
+}
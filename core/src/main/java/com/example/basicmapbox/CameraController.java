@@ -0,0 +1,209 @@
+package com.example.basicmapbox;
+
+/**
+ * Moves the camera towards a target one frame at a time, so target, zoom, bearing and tilt
+ * change together and the map is moved once per frame.
+ * <p>
+ * Every property follows its target as a critically damped spring: it approaches without
+ * overshooting, and a new target taken mid-flight keeps the current velocity, so transitions
+ * retarget smoothly instead of restarting from rest. In follow mode the target position is read
+ * each frame from the selected vehicle of the {@link VehicleStore}, where the interpolation
+ * engine has just written it; following ends when the selection is cleared.
+ * </p>
+ * <p>
+ * Bearings take the short way round. Positions are interpolated in degrees, which is fine at the
+ * distances a transit map pans over. Time is passed in, so the controller can be driven
+ * deterministically. Must be used from a single thread.
+ * </p>
+ */
+final class CameraController {
+
+    private static final int LONGITUDE = 0;
+    private static final int LATITUDE = 1;
+    private static final int ZOOM = 2;
+    private static final int BEARING = 3;
+    private static final int TILT = 4;
+    private static final int PROPERTIES = 5;
+
+    /* a critically damped spring from rest is within 1% of its target after this many 1/omega */
+    private static final double SETTLE_RADIANS = 6.64;
+    /* frames further apart than this are integrated as if they were this far apart */
+    private static final long MAX_STEP_NANOS = 100000000L;
+    /* distances, per property, below which a spring counts as settled */
+    private static final double[] SETTLED = {1e-7, 1e-7, 1e-4, 0.01, 0.01};
+
+    private final VehicleStore store;
+    private final double omega;
+
+    private final double[] value = new double[PROPERTIES];
+    private final double[] velocity = new double[PROPERTIES];
+    private final double[] target = new double[PROPERTIES];
+    private boolean animating;
+    private boolean following;
+    private long lastFrameNanos;
+
+    /**
+     * @param settleMillis roughly how long a transition from rest takes
+     */
+    CameraController(VehicleStore store, long settleMillis) {
+        this.store = store;
+        this.omega = SETTLE_RADIANS * 1000.0 / settleMillis;
+    }
+
+    /**
+     * Puts the camera where the map has it, dropping any motion. Used while idle, so that a
+     * transition starts from where gestures left the camera.
+     */
+    void jumpTo(double longitude, double latitude, double zoom, double bearing, double tilt) {
+        set(LONGITUDE, longitude);
+        set(LATITUDE, latitude);
+        set(ZOOM, zoom);
+        set(BEARING, bearing);
+        set(TILT, tilt);
+        animating = false;
+        following = false;
+    }
+
+    /**
+     * Retargets the camera. NaN leaves a property at its current target.
+     */
+    void animateTo(double longitude, double latitude, double zoom, double bearing, double tilt) {
+        retarget(LONGITUDE, longitude);
+        retarget(LATITUDE, latitude);
+        retarget(ZOOM, zoom);
+        retarget(TILT, tilt);
+        if (!Double.isNaN(bearing)) {
+            /* the nearest equivalent of the bearing to where the camera is now */
+            target[BEARING] = value[BEARING] + ((bearing - value[BEARING]) % 360 + 540) % 360 - 180;
+        }
+        if (!animating) {
+            /* frames may not have been running, so the first one only sets the clock */
+            lastFrameNanos = 0;
+            animating = true;
+        }
+    }
+
+    /**
+     * Keeps the selected vehicle at the centre, at a zoom, until the selection is cleared or
+     * {@link #stop()} is called.
+     *
+     * @param zoom the zoom to move to, or NaN to keep the current one
+     */
+    void followSelected(double zoom) {
+        int slot = store.selectedSlot();
+        if (slot == VehicleStore.NO_SLOT) {
+            return;
+        }
+        animateTo(store.longitude(slot), store.latitude(slot), zoom, Double.NaN, Double.NaN);
+        following = true;
+    }
+
+    /**
+     * Stops following, letting the camera come to rest at its current target.
+     */
+    void stopFollowing() {
+        following = false;
+    }
+
+    /**
+     * Stops at once wherever the camera is, as when the user takes over.
+     */
+    void stop() {
+        for (int i = 0; i < PROPERTIES; i++) {
+            target[i] = value[i];
+            velocity[i] = 0;
+        }
+        animating = false;
+        following = false;
+    }
+
+    boolean isFollowing() {
+        return following;
+    }
+
+    /**
+     * @return true while the camera has not reached its target
+     */
+    boolean isAnimating() {
+        return animating;
+    }
+
+    /**
+     * Advances the camera to a frame.
+     *
+     * @return true if the camera moved, in which case the map should be moved to it
+     */
+    boolean step(long frameTimeNanos) {
+        if (following) {
+            int slot = store.selectedSlot();
+            if (slot == VehicleStore.NO_SLOT) {
+                following = false;
+            } else if (store.longitude(slot) != target[LONGITUDE] || store.latitude(slot) != target[LATITUDE]) {
+                animateTo(store.longitude(slot), store.latitude(slot), Double.NaN, Double.NaN, Double.NaN);
+            }
+        }
+        if (!animating) {
+            lastFrameNanos = frameTimeNanos;
+            return false;
+        }
+        double dt = lastFrameNanos == 0 ? 0
+                : Math.min(frameTimeNanos - lastFrameNanos, MAX_STEP_NANOS) / 1e9;
+        lastFrameNanos = frameTimeNanos;
+        if (dt <= 0) {
+            return false;
+        }
+        double decay = Math.exp(-omega * dt);
+        boolean settled = true;
+        for (int i = 0; i < PROPERTIES; i++) {
+            /* exact solution of the spring over the step, so long frames stay stable */
+            double offset = value[i] - target[i];
+            double drive = velocity[i] + omega * offset;
+            offset = (offset + drive * dt) * decay;
+            velocity[i] = (velocity[i] - omega * drive * dt) * decay;
+            if (Math.abs(offset) < SETTLED[i] && Math.abs(velocity[i]) * dt < SETTLED[i]) {
+                offset = 0;
+                velocity[i] = 0;
+            } else {
+                settled = false;
+            }
+            value[i] = target[i] + offset;
+        }
+        animating = !settled;
+        return true;
+    }
+
+    double longitude() {
+        return value[LONGITUDE];
+    }
+
+    double latitude() {
+        return value[LATITUDE];
+    }
+
+    double zoom() {
+        return value[ZOOM];
+    }
+
+    /**
+     * @return the bearing in [0, 360)
+     */
+    double bearing() {
+        return (value[BEARING] % 360 + 360) % 360;
+    }
+
+    double tilt() {
+        return value[TILT];
+    }
+
+    private void set(int property, double newValue) {
+        value[property] = newValue;
+        target[property] = newValue;
+        velocity[property] = 0;
+    }
+
+    private void retarget(int property, double newTarget) {
+        if (!Double.isNaN(newTarget)) {
+            target[property] = newTarget;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.basicmapbox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a {@link VehicleMessageSource} subscribed to the tile channels covering the camera and
+ * the route channels of the routes being followed, instead of the whole fleet.
+ * <p>
+ * A tile is subscribed as soon as it overlaps the viewport, but only unsubscribed once it is
+ * outside a larger exit area and has stayed out for a linger time, so panning back and forth
+ * does not churn subscriptions. When the viewport needs more tiles than allowed, which happens
+ * at city zoom, the firehose channel is used instead, and it is dropped as soon as the tiles
+ * replacing it are subscribed. New channels are always subscribed before the ones they replace
+ * are dropped, so coverage never has a gap; a vehicle delivered on two channels at once is merged
+ * by the store, which ignores fixes that are not newer.
+ * </p>
+ * <p>
+ * Must be driven from a single thread. Time is passed in, so the manager can be tested with
+ * any clock.
+ * </p>
+ */
+final class ChannelSubscriptions {
+
+    private final VehicleMessageSource source;
+    private final int tileZoom;
+    private final int maxTiles;
+    private final double exitMargin;
+    private final long lingerMillis;
+
+    /* subscribed channel -> when it left the exit area, or -1 while it is still wanted */
+    private final HashMap<String, Long> subscribed = new HashMap<>();
+    private final HashSet<String> wanted = new HashSet<>();
+    private final HashSet<String> retained = new HashSet<>();
+    private long subscribeCount;
+    private long unsubscribeCount;
+    private long failureCount;
+
+    /**
+     * @param tileZoom     the zoom level of the tile channels
+     * @param maxTiles     the most tile channels to hold before using the firehose instead
+     * @param exitMargin   how far beyond the viewport, as a fraction of its span, a tile is kept
+     * @param lingerMillis how long a tile is kept after leaving the exit area
+     */
+    ChannelSubscriptions(VehicleMessageSource source, int tileZoom, int maxTiles, double exitMargin,
+                         long lingerMillis) {
+        this.source = source;
+        this.tileZoom = tileZoom;
+        this.maxTiles = maxTiles;
+        this.exitMargin = exitMargin;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Brings the subscriptions in line with the camera and the followed routes.
+     *
+     * @param viewport  the camera bounds; the firehose is used while it is unbounded
+     * @param routeIds  routes to keep receiving wherever their vehicles are
+     * @param nowMillis the current time, on any monotonic clock
+     * @return the time at which a lingering channel is due to be dropped, or -1 if none is
+     */
+    long update(Viewport viewport, Iterable<String> routeIds, long nowMillis) {
+        wanted.clear();
+        retained.clear();
+        if (!viewport.isBounded()
+                || !addTiles(wanted, viewport.west(), viewport.south(), viewport.east(), viewport.north(), 0)) {
+            wanted.add(FeedChannels.ALL);
+        } else {
+            /* an exit area of too many tiles keeps just the viewport's */
+            addTiles(retained, viewport.west(), viewport.south(), viewport.east(), viewport.north(), exitMargin);
+        }
+        if (!wanted.contains(FeedChannels.ALL)) {
+            for (String routeId : routeIds) {
+                if (routeId != null) {
+                    wanted.add(FeedChannels.route(routeId));
+                }
+            }
+        }
+        retained.addAll(wanted);
+
+        for (String channel : wanted) {
+            Long leftAt = subscribed.get(channel);
+            if (leftAt == null) {
+                try {
+                    source.subscribe(channel);
+                    subscribed.put(channel, -1L);
+                    subscribeCount++;
+                } catch (IOException e) {
+                    failureCount++;
+                }
+            } else if (leftAt >= 0) {
+                subscribed.put(channel, -1L);
+            }
+        }
+
+        /* with the firehose wanted but not yet subscribed, nothing is dropped */
+        boolean covered = true;
+        for (String channel : wanted) {
+            covered &= subscribed.containsKey(channel);
+        }
+        long nextDrop = -1;
+        ArrayList<String> dropped = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Long>> it = subscribed.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            String channel = entry.getKey();
+            if (wanted.contains(channel) || !covered) {
+                continue;
+            }
+            if (retained.contains(channel)) {
+                entry.setValue(-1L);
+                continue;
+            }
+            long leftAt = entry.getValue() < 0 ? nowMillis : entry.getValue();
+            /* the firehose duplicates every other channel, so it goes as soon as they are in */
+            if (nowMillis - leftAt >= lingerMillis || wanted.contains(FeedChannels.ALL)
+                    || FeedChannels.ALL.equals(channel)) {
+                it.remove();
+                dropped.add(channel);
+            } else {
+                entry.setValue(leftAt);
+                long due = leftAt + lingerMillis;
+                nextDrop = nextDrop < 0 ? due : Math.min(nextDrop, due);
+            }
+        }
+        for (String channel : dropped) {
+            source.unsubscribe(channel);
+            unsubscribeCount++;
+        }
+        return nextDrop;
+    }
+
+    /**
+     * @return a snapshot of the subscribed channels
+     */
+    Set<String> channels() {
+        return new HashSet<>(subscribed.keySet());
+    }
+
+    long subscribeCount() {
+        return subscribeCount;
+    }
+
+    long unsubscribeCount() {
+        return unsubscribeCount;
+    }
+
+    /**
+     * @return channel counts and churn, for the metrics dump
+     */
+    String describe() {
+        int tiles = 0;
+        int routes = 0;
+        for (String channel : subscribed.keySet()) {
+            if (FeedChannels.isTile(channel)) {
+                tiles++;
+            } else if (FeedChannels.isRoute(channel)) {
+                routes++;
+            }
+        }
+        return "channels=" + (subscribed.containsKey(FeedChannels.ALL) ? "all+" : "") + tiles + " tiles+" + routes
+                + " routes subscribes=" + subscribeCount + " unsubscribes=" + unsubscribeCount
+                + " failures=" + failureCount;
+    }
+
+    /**
+     * Adds the tile channels covering the bounds grown by a margin, unless there are too many.
+     *
+     * @return false if there were too many tiles and none were added
+     */
+    private boolean addTiles(Set<String> out, double west, double south, double east, double north, double margin) {
+        double padLng = (east - west) * margin;
+        double padLat = (north - south) * margin;
+        int minX = FeedChannels.tileX(west - padLng, tileZoom);
+        int maxX = FeedChannels.tileX(east + padLng, tileZoom);
+        int minY = FeedChannels.tileY(Math.min(90, north + padLat), tileZoom);
+        int maxY = FeedChannels.tileY(Math.max(-90, south - padLat), tileZoom);
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > maxTiles) {
+            return false;
+        }
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                out.add(FeedChannels.tile(tileZoom, x, y));
+            }
+        }
+        return true;
+    }
+}
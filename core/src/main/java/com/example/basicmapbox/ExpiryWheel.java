@@ -0,0 +1,176 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Finds vehicles whose last fix is older than a time to live, without scanning the fleet.
+ * <p>
+ * A hashed timing wheel: each slot sits in the bucket of the tick its deadline falls in, and
+ * advancing the clock only visits the buckets of the ticks that passed. A fix moves its slot to
+ * another bucket in constant time. With the wheel spanning more ticks than the time to live,
+ * every slot visited is due, so expiring costs nothing for vehicles that are still reporting.
+ * Members of a bucket are linked through primitive arrays, as in {@link SourcePartitions}.
+ * </p>
+ * <p>
+ * Times are feed times in epoch milliseconds. A clock that moves backwards, as when playback
+ * seeks, restarts the wheel from the new time without expiring anything.
+ * </p>
+ */
+final class ExpiryWheel {
+
+    /**
+     * Told about each expired slot, which has already left the wheel.
+     */
+    interface Callback {
+        void onExpired(int slot);
+    }
+
+    private static final int NONE = -1;
+
+    private final long ttlMillis;
+    private final long tickMillis;
+    private final int[] heads;
+    private final int mask;
+
+    /* per slot: deadline, bucket, and neighbours in the bucket's list */
+    private long[] deadline;
+    private int[] bucketOf;
+    private int[] next;
+    private int[] prev;
+    private int size;
+    /* the tick up to which buckets have been visited, or Long.MIN_VALUE before the first advance */
+    private long currentTick = Long.MIN_VALUE;
+
+    /**
+     * @param ttlMillis  how long after its last fix a vehicle expires
+     * @param tickMillis the resolution of expiry; a vehicle expires within one tick of its deadline
+     * @param slots      the number of slots to allocate up front
+     */
+    ExpiryWheel(long ttlMillis, long tickMillis, int slots) {
+        this.ttlMillis = ttlMillis;
+        this.tickMillis = tickMillis;
+        int buckets = Integer.highestOneBit((int) Math.max(1, ttlMillis / tickMillis) * 2 - 1) << 1;
+        heads = new int[buckets];
+        Arrays.fill(heads, NONE);
+        mask = buckets - 1;
+        deadline = new long[slots];
+        bucketOf = filled(slots);
+        next = new int[slots];
+        prev = new int[slots];
+    }
+
+    /**
+     * Restarts the time to live of a slot from its latest fix, adding the slot if it is new.
+     * A fix older than the one the slot already has is ignored.
+     */
+    void touch(int slot, long fixMillis) {
+        ensureSlots(slot + 1);
+        long newDeadline = fixMillis + ttlMillis;
+        if (bucketOf[slot] != NONE) {
+            if (newDeadline <= deadline[slot]) {
+                return;
+            }
+            unlink(slot);
+        }
+        deadline[slot] = newDeadline;
+        /* the first tick starting at or after the deadline; one already visited is picked up by
+           the next advance */
+        long tick = (newDeadline + tickMillis - 1) / tickMillis;
+        if (currentTick != Long.MIN_VALUE && tick <= currentTick) {
+            tick = currentTick + 1;
+        }
+        link(slot, (int) (tick & mask));
+    }
+
+    /**
+     * Takes a slot out of the wheel, for when it is freed by other means.
+     */
+    void remove(int slot) {
+        if (slot < bucketOf.length && bucketOf[slot] != NONE) {
+            unlink(slot);
+        }
+    }
+
+    /**
+     * Advances the clock, reporting every slot whose deadline has passed.
+     *
+     * @return the number of slots expired
+     */
+    int advance(long nowMillis, Callback callback) {
+        long tick = nowMillis / tickMillis;
+        if (currentTick != Long.MIN_VALUE && tick < currentTick) {
+            currentTick = tick;
+            return 0;
+        }
+        int expired = 0;
+        /* the first advance, or a jump of a whole revolution or more, visits every bucket once */
+        long first = currentTick == Long.MIN_VALUE ? tick - mask : Math.max(currentTick + 1, tick - mask);
+        for (long t = first; t <= tick && size > 0; t++) {
+            int bucket = (int) (t & mask);
+            int slot = heads[bucket];
+            while (slot != NONE) {
+                int following = next[slot];
+                if (deadline[slot] <= nowMillis) {
+                    unlink(slot);
+                    expired++;
+                    callback.onExpired(slot);
+                }
+                slot = following;
+            }
+        }
+        currentTick = tick;
+        return expired;
+    }
+
+    /**
+     * @return the number of slots in the wheel
+     */
+    int size() {
+        return size;
+    }
+
+    private void link(int slot, int bucket) {
+        int head = heads[bucket];
+        next[slot] = head;
+        prev[slot] = NONE;
+        if (head != NONE) {
+            prev[head] = slot;
+        }
+        heads[bucket] = slot;
+        bucketOf[slot] = bucket;
+        size++;
+    }
+
+    private void unlink(int slot) {
+        int bucket = bucketOf[slot];
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else {
+            heads[bucket] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        }
+        bucketOf[slot] = NONE;
+        size--;
+    }
+
+    private void ensureSlots(int slots) {
+        if (slots <= bucketOf.length) {
+            return;
+        }
+        int newSlots = Math.max(slots, bucketOf.length * 2);
+        int oldSlots = bucketOf.length;
+        deadline = Arrays.copyOf(deadline, newSlots);
+        bucketOf = Arrays.copyOf(bucketOf, newSlots);
+        Arrays.fill(bucketOf, oldSlots, newSlots, NONE);
+        next = Arrays.copyOf(next, newSlots);
+        prev = Arrays.copyOf(prev, newSlots);
+    }
+
+    private static int[] filled(int capacity) {
+        int[] array = new int[capacity];
+        Arrays.fill(array, NONE);
+        return array;
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.basicmapbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the burst of historical messages replayed when the feed is first attached and turns
+ * it into one batch grouped by vehicle.
+ * <p>
+ * The bootstrap phase ends once the expected number of messages has arrived, the feed has gone
+ * quiet for a while, or a maximum wait has passed, whichever comes first. Grouping and sorting
+ * then happens on a background thread so the main thread only has to apply a ready-made batch
+ * in a single pass. Messages arriving after the phase ends are refused and belong to the live
+ * path.
+ * </p>
+ */
+final class FeedBootstrap {
+
+    /**
+     * Notified once, on the bootstrap thread, with the collected history.
+     */
+    interface Listener {
+        void onBootstrapReady(Batch batch);
+    }
+
+    /**
+     * The collected history grouped by vehicle. The fixes of vehicle {@code v} occupy indexes
+     * {@code start[v]} to {@code start[v + 1] - 1}, oldest first.
+     */
+    static final class Batch {
+        final int vehicleCount;
+        final String[] ids;
+        final int[] start;
+        final double[] longitude;
+        final double[] latitude;
+        final long[] timestamp;
+        /* the newest fix of each vehicle, carrying its trip metadata */
+        final VehicleFix[] latest;
+        final int messageCount;
+        /* time from start() until the batch was built */
+        final long elapsedMillis;
+
+        Batch(int vehicleCount, int messageCount, long elapsedMillis) {
+            this.vehicleCount = vehicleCount;
+            this.messageCount = messageCount;
+            this.elapsedMillis = elapsedMillis;
+            ids = new String[vehicleCount];
+            start = new int[vehicleCount + 1];
+            longitude = new double[messageCount];
+            latitude = new double[messageCount];
+            timestamp = new long[messageCount];
+            latest = new VehicleFix[vehicleCount];
+        }
+    }
+
+    private final int expectedMessages;
+    private final long quietMillis;
+    private final long maxWaitMillis;
+    private final Listener listener;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "feed-bootstrap");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object lock = new Object();
+    private final ArrayList<VehicleFix> fixes = new ArrayList<>();
+    private boolean closed;
+    private long startNanos;
+    private long lastMessageNanos;
+
+    /**
+     * @param expectedMessages the size of the replayed history, ending the phase once reached
+     * @param quietMillis      how long the feed may go silent before the burst counts as over
+     * @param maxWaitMillis    the longest the phase may last, even if nothing arrives
+     */
+    FeedBootstrap(int expectedMessages, long quietMillis, long maxWaitMillis, Listener listener) {
+        this.expectedMessages = expectedMessages;
+        this.quietMillis = quietMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the clock for the quiet period and the maximum wait.
+     */
+    void start() {
+        synchronized (lock) {
+            startNanos = System.nanoTime();
+            lastMessageNanos = startNanos;
+        }
+        long period = Math.max(1, quietMillis / 2);
+        executor.scheduleWithFixedDelay(this::checkTimeouts, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Offers a decoded message to the bootstrap phase. Safe to call from any thread.
+     *
+     * @return false if the phase is over and the message should take the live path
+     */
+    boolean offer(VehicleFix fix) {
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            VehicleFix copy = new VehicleFix();
+            copy.copyFrom(fix);
+            fixes.add(copy);
+            lastMessageNanos = System.nanoTime();
+            if (fixes.size() >= expectedMessages) {
+                closed = true;
+                executor.execute(this::build);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Abandons the phase without notifying the listener.
+     */
+    void cancel() {
+        synchronized (lock) {
+            closed = true;
+        }
+        executor.shutdownNow();
+    }
+
+    private void checkTimeouts() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            long now = System.nanoTime();
+            boolean quiet = !fixes.isEmpty() && now - lastMessageNanos >= TimeUnit.MILLISECONDS.toNanos(quietMillis);
+            boolean expired = now - startNanos >= TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            if (!quiet && !expired) {
+                return;
+            }
+            closed = true;
+        }
+        build();
+    }
+
+    /**
+     * Groups the collected messages by vehicle in arrival order, then orders each vehicle's fixes
+     * by feed timestamp.
+     */
+    private void build() {
+        HashMap<String, Integer> vehicleIndex = new HashMap<>();
+        int[] owner = new int[fixes.size()];
+        ArrayList<String> ids = new ArrayList<>();
+        int[] counts = new int[Math.max(1, fixes.size())];
+        for (int i = 0; i < fixes.size(); i++) {
+            String id = fixes.get(i).id;
+            Integer vehicle = vehicleIndex.get(id);
+            if (vehicle == null) {
+                vehicle = ids.size();
+                vehicleIndex.put(id, vehicle);
+                ids.add(id);
+            }
+            owner[i] = vehicle;
+            counts[vehicle]++;
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Batch batch = new Batch(ids.size(), fixes.size(), elapsedMillis);
+        for (int v = 0; v < batch.vehicleCount; v++) {
+            batch.ids[v] = ids.get(v);
+            batch.start[v + 1] = batch.start[v] + counts[v];
+        }
+        int[] next = Arrays.copyOf(batch.start, batch.vehicleCount);
+        for (int i = 0; i < fixes.size(); i++) {
+            VehicleFix fix = fixes.get(i);
+            int v = owner[i];
+            int position = next[v]++;
+            /* insertion sort by timestamp, the history of one bus is only a handful of fixes */
+            while (position > batch.start[v] && batch.timestamp[position - 1] > fix.timestamp) {
+                batch.longitude[position] = batch.longitude[position - 1];
+                batch.latitude[position] = batch.latitude[position - 1];
+                batch.timestamp[position] = batch.timestamp[position - 1];
+                position--;
+            }
+            batch.longitude[position] = fix.longitude;
+            batch.latitude[position] = fix.latitude;
+            batch.timestamp[position] = fix.timestamp;
+            if (batch.latest[v] == null || batch.latest[v].timestamp <= fix.timestamp) {
+                batch.latest[v] = fix;
+            }
+        }
+        fixes.clear();
+        executor.shutdown();
+        listener.onBootstrapReady(batch);
+    }
+}
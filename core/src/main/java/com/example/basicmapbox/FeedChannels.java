@@ -0,0 +1,73 @@
+package com.example.basicmapbox;
+
+/**
+ * Names of the feed channels a {@link VehicleMessageSource} can deliver: every vehicle, the
+ * vehicles inside one Web Mercator tile, or the vehicles on one route.
+ * <p>
+ * Tile channels are named {@code vehicle:tile:<zoom>:<x>:<y>} and route channels
+ * {@code vehicle:route:<routeId>}, next to the {@code vehicle:all} firehose.
+ * </p>
+ */
+final class FeedChannels {
+
+    static final String ALL = "vehicle:all";
+
+    private static final String TILE_PREFIX = "vehicle:tile:";
+    private static final String ROUTE_PREFIX = "vehicle:route:";
+
+    private FeedChannels() {
+    }
+
+    static String tile(int zoom, int x, int y) {
+        return TILE_PREFIX + zoom + ":" + x + ":" + y;
+    }
+
+    static String route(String routeId) {
+        return ROUTE_PREFIX + routeId;
+    }
+
+    static boolean isTile(String channel) {
+        return channel.startsWith(TILE_PREFIX);
+    }
+
+    static boolean isRoute(String channel) {
+        return channel.startsWith(ROUTE_PREFIX);
+    }
+
+    /**
+     * @return the route id of a route channel
+     */
+    static String routeOf(String channel) {
+        return channel.substring(ROUTE_PREFIX.length());
+    }
+
+    /**
+     * @return the zoom, x and y of a tile channel
+     */
+    static int[] tileOf(String channel) {
+        String[] parts = channel.substring(TILE_PREFIX.length()).split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Not a tile channel: " + channel);
+        }
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+    }
+
+    static int tileX(double longitude, int zoom) {
+        int tiles = 1 << zoom;
+        return Math.max(0, Math.min(tiles - 1, (int) Math.floor((longitude / 360.0 + 0.5) * tiles)));
+    }
+
+    static int tileY(double latitude, int zoom) {
+        int tiles = 1 << zoom;
+        double sin = Math.sin(Math.toRadians(latitude));
+        double y = 0.5 - 0.25 * Math.log((1 + sin) / (1 - sin)) / Math.PI;
+        return Math.max(0, Math.min(tiles - 1, (int) Math.floor(y * tiles)));
+    }
+
+    /**
+     * @return the tile as one number, for sets of tiles at a single zoom
+     */
+    static long tileKey(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.basicmapbox;
+
+/**
+ * Picks the decoder matching the type of payload a message arrived with: raw JSON text is
+ * streamed, binary payloads are read as GTFS-realtime protobuf, and payloads the transport already
+ * parsed into a Gson tree are read from the tree. All three share one {@link StringPool}.
+ * <p>
+ * Reading from the tree allocates for every message, so it is the slowest of the three; Ably
+ * hands over JSON-encoded messages as trees, so only text or binary messages reach the streaming
+ * decoders.
+ * </p>
+ */
+final class FeedPayloadDecoder implements VehicleMessageDecoder {
+
+    private static final int POOL_CAPACITY = 8192;
+
+    private final VehicleMessageDecoder json;
+    private final VehicleMessageDecoder protobuf;
+    private final VehicleMessageDecoder tree;
+
+    FeedPayloadDecoder() {
+        StringPool strings = new StringPool(POOL_CAPACITY);
+        json = new StreamingJsonVehicleDecoder(strings);
+        protobuf = new GtfsRealtimeVehicleDecoder(strings);
+        tree = new GsonVehicleDecoder(strings);
+    }
+
+    @Override
+    public boolean decode(Object payload, VehicleFix out) {
+        if (payload instanceof CharSequence) {
+            return json.decode(payload, out);
+        }
+        if (payload instanceof byte[]) {
+            return protobuf.decode(payload, out);
+        }
+        return tree.decode(payload, out);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.basicmapbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * File format for recorded feed messages, kept as the raw payloads they arrived with so a replay
+ * goes through the same decoders as the live feed.
+ * <p>
+ * A recording is a header followed by one record per message: the wall-clock time it was
+ * received, whether the payload is text or binary, its length and its bytes. Text payloads are
+ * stored as UTF-8 and come back as strings, binary payloads as byte arrays; payloads of other
+ * types are stored as their string form.
+ * </p>
+ */
+final class FeedRecording {
+
+    private static final int MAGIC = 0x46524543;
+    private static final int VERSION = 1;
+    private static final byte KIND_TEXT = 0;
+    private static final byte KIND_BINARY = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private FeedRecording() {
+    }
+
+    /**
+     * Appends messages to a new recording. Not thread safe.
+     */
+    static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        void write(long receivedAtMillis, Object payload) throws IOException {
+            byte[] bytes;
+            byte kind;
+            if (payload instanceof byte[]) {
+                bytes = (byte[]) payload;
+                kind = KIND_BINARY;
+            } else {
+                bytes = String.valueOf(payload).getBytes(UTF_8);
+                kind = KIND_TEXT;
+            }
+            out.writeLong(receivedAtMillis);
+            out.writeByte(kind);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a recording from the start, one message at a time. Not thread safe.
+     */
+    static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private long receivedAtMillis;
+        private Object payload;
+
+        Reader(File file) throws IOException {
+            this(new FileInputStream(file), file.getPath());
+        }
+
+        /**
+         * Reads a recording from a stream, such as a bundled resource, closing it when done.
+         *
+         * @param name what to call the recording in errors
+         */
+        Reader(InputStream stream, String name) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                in.close();
+                throw new IOException("Not a feed recording: " + name);
+            }
+        }
+
+        /**
+         * Moves to the next message.
+         *
+         * @return false at the end of the recording, including a record cut short by a crash
+         */
+        boolean next() throws IOException {
+            try {
+                receivedAtMillis = in.readLong();
+                byte kind = in.readByte();
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Corrupt feed recording");
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                payload = kind == KIND_BINARY ? bytes : new String(bytes, UTF_8);
+                return true;
+            } catch (EOFException e) {
+                payload = null;
+                return false;
+            }
+        }
+
+        long receivedAtMillis() {
+            return receivedAtMillis;
+        }
+
+        Object payload() {
+            return payload;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
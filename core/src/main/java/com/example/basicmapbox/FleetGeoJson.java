@@ -0,0 +1,119 @@
+package com.example.basicmapbox;
+
+/**
+ * Serializes the contents of each bus source from a {@link VehicleStore}.
+ * <p>
+ * Every bus feature carries its trip metadata, written from the attribute dictionaries of the
+ * store; attributes a vehicle does not have are left out. Only the selected source carries the
+ * selected flag and the name of its callout image, so selecting a bus never dirties its
+ * partition. Clusters carry their point count. The returned text is only valid until the next call.
+ * </p>
+ */
+final class FleetGeoJson {
+
+    static final String POINT_COUNT = "point_count";
+    static final String SELECTED = "selected";
+    static final String START_DATE = "startDate";
+    static final String ROUTE_ID = "routeId";
+    static final String TRIP_ID = "tripId";
+    static final String CALLOUT = "callout";
+
+    private final VehicleStore store;
+    private final GeoJsonWriter writer = new GeoJsonWriter();
+    private final PointClusterer.Callback clusterWriter = new PointClusterer.Callback() {
+        @Override
+        public void onPoint(int slot) {
+            writeBus(slot);
+        }
+
+        @Override
+        public void onCluster(long id, int count, double longitude, double latitude) {
+            writer.beginPointFeature(id, longitude, latitude)
+                    .property(POINT_COUNT, count)
+                    .endFeature();
+        }
+    };
+
+    FleetGeoJson(VehicleStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return the writer, for sources other than buses
+     */
+    GeoJsonWriter writer() {
+        return writer;
+    }
+
+    String empty() {
+        return writer.beginFeatureCollection().endFeatureCollection();
+    }
+
+    /**
+     * @return clusters and lone buses at a zoom, limited to the viewport if it is bounded
+     */
+    String clusters(double zoom, Viewport viewport) {
+        PointClusterer clusters = store.clusters();
+        writer.beginFeatureCollection();
+        if (viewport.isBounded()) {
+            clusters.getClusters(zoom, viewport.west(), viewport.south(),
+                    viewport.east(), viewport.north(), clusterWriter);
+        } else {
+            clusters.getClusters(zoom, clusterWriter);
+        }
+        return writer.endFeatureCollection();
+    }
+
+    /**
+     * @return the buses of a partition, limited to the viewport if it is bounded
+     */
+    String partition(int partition, Viewport viewport) {
+        SourcePartitions partitions = store.partitions();
+        boolean bounded = viewport.isBounded();
+        writer.beginFeatureCollection();
+        for (int slot = partitions.first(partition); slot != VehicleStore.NO_SLOT; slot = partitions.next(slot)) {
+            if (!bounded || viewport.contains(store.longitude(slot), store.latitude(slot))) {
+                writeBus(slot);
+            }
+        }
+        return writer.endFeatureCollection();
+    }
+
+    /**
+     * @param callout the name of the callout image, or null for none
+     * @return the selected bus, or an empty collection for {@link VehicleStore#NO_SLOT}
+     */
+    String selected(int slot, String callout) {
+        writer.beginFeatureCollection();
+        if (slot != VehicleStore.NO_SLOT) {
+            beginBus(slot);
+            writer.property(SELECTED, true);
+            if (callout != null) {
+                writer.property(CALLOUT, callout);
+            }
+            writer.endFeature();
+        }
+        return writer.endFeatureCollection();
+    }
+
+    private void writeBus(int slot) {
+        beginBus(slot);
+        writer.endFeature();
+    }
+
+    /**
+     * Starts the feature of a bus with its trip attributes; more properties may follow.
+     */
+    private void beginBus(int slot) {
+        writer.beginPointFeature(store.id(slot), store.longitude(slot), store.latitude(slot));
+        writeAttribute(START_DATE, store.startDates(), store.startDateCode(slot));
+        writeAttribute(ROUTE_ID, store.routeIds(), store.routeCode(slot));
+        writeAttribute(TRIP_ID, store.tripIds(), store.tripCode(slot));
+    }
+
+    private void writeAttribute(String name, AttributeDictionary dictionary, int code) {
+        if (code != AttributeDictionary.NO_CODE) {
+            writer.propertyJson(name, dictionary.json(code));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.basicmapbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compact binary snapshot of the last known state of every vehicle, kept in a memory-mapped file
+ * so the fleet can be shown the moment the map is ready instead of after the feed connects.
+ * <p>
+ * The file starts with a fixed header carrying a magic number and format version, followed by
+ * one fixed-width record per vehicle and a dictionary holding every distinct id, route, trip and
+ * date once. Records refer to dictionary entries by index, so reading back needs no parsing
+ * beyond decoding each distinct string a single time.
+ * </p>
+ * <p>
+ * Capturing runs on the main thread, as it reads the store; writing the file happens on a
+ * background thread, to a temporary file which then replaces the previous snapshot, so a reader
+ * never sees a half-written one.
+ * </p>
+ */
+final class FleetSnapshot {
+
+    /**
+     * Receives every vehicle read back from a snapshot.
+     */
+    interface Consumer {
+        void accept(String id, double longitude, double latitude, long timestamp,
+                    String startDate, String routeId, String tripId);
+    }
+
+    private static final int MAGIC = 0x464C5453;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int RECORD_BYTES = 40;
+    private static final int NO_STRING = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File temporaryFile;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fleet-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    FleetSnapshot(File file) {
+        this.file = file;
+        this.temporaryFile = new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Captures the store and writes it out in the background.
+     */
+    void save(VehicleStore store) {
+        ByteBuffer snapshot = capture(store, System.currentTimeMillis());
+        writer.execute(() -> {
+            try {
+                write(snapshot);
+            } catch (IOException ignored) {
+                /* a missing snapshot only costs the next cold start its head start */
+            }
+        });
+    }
+
+    /**
+     * Encodes the current position, newest fix time and trip of every vehicle.
+     */
+    static ByteBuffer capture(VehicleStore store, long savedAtMillis) {
+        int count = store.size();
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        String[] strings = new String[Math.max(16, count * 2)];
+        int[] refs = new int[count * 4];
+        int stringCount = 0;
+        int stringBytes = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = store.slotAt(i);
+            String[] values = {store.id(slot), store.startDate(slot), store.routeId(slot), store.tripId(slot)};
+            for (int field = 0; field < values.length; field++) {
+                String value = values[field];
+                int ref = NO_STRING;
+                if (value != null) {
+                    Integer existing = dictionary.get(value);
+                    if (existing == null) {
+                        if (stringCount == strings.length) {
+                            strings = Arrays.copyOf(strings, stringCount * 2);
+                        }
+                        existing = stringCount;
+                        strings[stringCount++] = value;
+                        dictionary.put(value, existing);
+                    }
+                    ref = existing;
+                }
+                refs[i * 4 + field] = ref;
+            }
+        }
+        byte[][] encoded = new byte[stringCount][];
+        for (int s = 0; s < stringCount; s++) {
+            encoded[s] = strings[s].getBytes(UTF_8);
+            stringBytes += encoded[s].length;
+        }
+
+        int size = HEADER_BYTES + count * RECORD_BYTES + (stringCount + 1) * 4 + stringBytes;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(savedAtMillis)
+                .putInt(count).putInt(stringCount).putInt(stringBytes).putInt(0);
+
+        PositionHistory history = store.history();
+        for (int i = 0; i < count; i++) {
+            int slot = store.slotAt(i);
+            int fixes = history.size(slot);
+            buffer.putInt(refs[i * 4])
+                    .putDouble(store.longitude(slot))
+                    .putDouble(store.latitude(slot))
+                    .putLong(fixes > 0 ? history.timestamp(slot, fixes - 1) : savedAtMillis)
+                    .putInt(refs[i * 4 + 1])
+                    .putInt(refs[i * 4 + 2])
+                    .putInt(refs[i * 4 + 3]);
+        }
+        int offset = 0;
+        for (int s = 0; s < stringCount; s++) {
+            buffer.putInt(offset);
+            offset += encoded[s].length;
+        }
+        buffer.putInt(offset);
+        for (int s = 0; s < stringCount; s++) {
+            buffer.put(encoded[s]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes an encoded snapshot through a mapping of a temporary file, then moves it into place.
+     */
+    void write(ByteBuffer snapshot) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(temporaryFile, "rw")) {
+            output.setLength(snapshot.remaining());
+            MappedByteBuffer mapped = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, snapshot.remaining());
+            mapped.put(snapshot.duplicate());
+            mapped.force();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Reads the snapshot back, handing every vehicle to the consumer.
+     *
+     * @return when the snapshot was saved, in epoch milliseconds, or -1 if there is no usable
+     * snapshot
+     */
+    long read(Consumer consumer) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_BYTES) {
+            return -1;
+        }
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer mapped = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                return -1;
+            }
+            long savedAtMillis = mapped.getLong(8);
+            int count = mapped.getInt(16);
+            int stringCount = mapped.getInt(20);
+            int stringBytes = mapped.getInt(24);
+            if (count < 0 || stringCount < 0 || stringBytes < 0
+                    || HEADER_BYTES + (long) count * RECORD_BYTES + (stringCount + 1L) * 4 + stringBytes != mapped.capacity()) {
+                return -1;
+            }
+            int offsets = HEADER_BYTES + count * RECORD_BYTES;
+            int bytes = offsets + (stringCount + 1) * 4;
+
+            byte[] raw = new byte[stringBytes];
+            mapped.position(bytes);
+            mapped.get(raw);
+            String[] strings = new String[stringCount];
+            for (int s = 0; s < stringCount; s++) {
+                int start = mapped.getInt(offsets + s * 4);
+                int end = mapped.getInt(offsets + s * 4 + 4);
+                if (start < 0 || end < start || end > stringBytes) {
+                    return -1;
+                }
+                strings[s] = new String(raw, start, end - start, UTF_8);
+            }
+
+            for (int i = 0; i < count; i++) {
+                int record = HEADER_BYTES + i * RECORD_BYTES;
+                String id = string(strings, mapped.getInt(record));
+                if (id == null) {
+                    continue;
+                }
+                consumer.accept(id,
+                        mapped.getDouble(record + 4),
+                        mapped.getDouble(record + 12),
+                        mapped.getLong(record + 20),
+                        string(strings, mapped.getInt(record + 28)),
+                        string(strings, mapped.getInt(record + 32)),
+                        string(strings, mapped.getInt(record + 36)));
+            }
+            return savedAtMillis;
+        }
+    }
+
+    /**
+     * Stops the writer once pending snapshots are written.
+     */
+    void close() {
+        writer.shutdown();
+    }
+
+    private static String string(String[] strings, int ref) {
+        return ref >= 0 && ref < strings.length ? strings[ref] : null;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.basicmapbox;
+
+/**
+ * Writes GeoJSON text straight into a reusable buffer.
+ * <p>
+ * Used instead of building {@code Feature} and {@code FeatureCollection} objects when a source is
+ * refreshed every frame, so publishing the fleet does not allocate per vehicle.
+ * </p>
+ */
+final class GeoJsonWriter {
+
+    private final StringBuilder json = new StringBuilder(16 * 1024);
+    private boolean firstFeature;
+    private boolean firstProperty;
+    private boolean firstCoordinate;
+
+    GeoJsonWriter beginFeatureCollection() {
+        json.setLength(0);
+        json.append("{\"type\":\"FeatureCollection\",\"features\":[");
+        firstFeature = true;
+        return this;
+    }
+
+    /**
+     * Starts a point feature. Properties may follow until {@link #endFeature()}.
+     */
+    GeoJsonWriter beginPointFeature(String id, double longitude, double latitude) {
+        if (!firstFeature) {
+            json.append(',');
+        }
+        firstFeature = false;
+        json.append("{\"type\":\"Feature\",\"id\":");
+        appendString(id);
+        json.append(",\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(longitude).append(',').append(latitude)
+                .append("]},\"properties\":{");
+        firstProperty = true;
+        return this;
+    }
+
+    /**
+     * Starts a point feature with a numeric id.
+     */
+    GeoJsonWriter beginPointFeature(long id, double longitude, double latitude) {
+        if (!firstFeature) {
+            json.append(',');
+        }
+        firstFeature = false;
+        json.append("{\"type\":\"Feature\",\"id\":").append(id)
+                .append(",\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(longitude).append(',').append(latitude)
+                .append("]},\"properties\":{");
+        firstProperty = true;
+        return this;
+    }
+
+    /**
+     * Starts a line feature. Coordinates follow, then {@link #endCoordinates()}, then optionally
+     * properties until {@link #endFeature()}.
+     */
+    GeoJsonWriter beginLineStringFeature() {
+        if (!firstFeature) {
+            json.append(',');
+        }
+        firstFeature = false;
+        json.append("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+        firstCoordinate = true;
+        return this;
+    }
+
+    GeoJsonWriter coordinate(double longitude, double latitude) {
+        if (!firstCoordinate) {
+            json.append(',');
+        }
+        firstCoordinate = false;
+        json.append('[').append(longitude).append(',').append(latitude).append(']');
+        return this;
+    }
+
+    GeoJsonWriter endCoordinates() {
+        json.append("]},\"properties\":{");
+        firstProperty = true;
+        return this;
+    }
+
+    GeoJsonWriter property(String name, String value) {
+        appendName(name);
+        if (value == null) {
+            json.append("null");
+        } else {
+            appendString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a property whose value is already JSON, such as a string from {@link #quote(String)}.
+     */
+    GeoJsonWriter propertyJson(String name, String value) {
+        appendName(name);
+        json.append(value);
+        return this;
+    }
+
+    GeoJsonWriter property(String name, long value) {
+        appendName(name);
+        json.append(value);
+        return this;
+    }
+
+    GeoJsonWriter property(String name, boolean value) {
+        appendName(name);
+        json.append(value);
+        return this;
+    }
+
+    GeoJsonWriter endFeature() {
+        json.append("}}");
+        return this;
+    }
+
+    /**
+     * @return the complete document
+     */
+    String endFeatureCollection() {
+        json.append("]}");
+        return json.toString();
+    }
+
+    private void appendName(String name) {
+        if (!firstProperty) {
+            json.append(',');
+        }
+        firstProperty = false;
+        appendString(name);
+        json.append(':');
+    }
+
+    /**
+     * @return the value as a quoted and escaped JSON string
+     */
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2);
+        appendString(quoted, value);
+        return quoted.toString();
+    }
+
+    private void appendString(String value) {
+        appendString(json, value);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.basicmapbox;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Reads a vehicle position from a GTFS-realtime {@code FeedEntity} already parsed into a Gson
+ * tree, which is how Ably hands over JSON-encoded messages.
+ * <p>
+ * This is the slow path. By the time the tree arrives, the transport has already allocated a
+ * node and a string for every field, so all this decoder can do is swap the strings for their
+ * pooled copies, which keeps the strings that outlive the message down to one per distinct
+ * value. Feeds published as raw JSON text or protobuf bytes avoid the tree altogether.
+ * </p>
+ */
+final class GsonVehicleDecoder implements VehicleMessageDecoder {
+
+    private final StringPool strings;
+
+    GsonVehicleDecoder(StringPool strings) {
+        this.strings = strings;
+    }
+
+    @Override
+    public boolean decode(Object payload, VehicleFix out) {
+        out.reset();
+        if (!(payload instanceof JsonObject)) {
+            return false;
+        }
+        JsonObject json = (JsonObject) payload;
+        out.id = getString(json, "id");
+
+        JsonObject vehicle = getObject(json, "vehicle");
+        JsonObject position = getObject(vehicle, "position");
+        out.longitude = getNumber(position, "longitude");
+        out.latitude = getNumber(position, "latitude");
+        out.bearing = getNumber(position, "bearing");
+        out.speed = getNumber(position, "speed");
+        double seconds = getNumber(vehicle, "timestamp");
+        out.timestamp = Double.isNaN(seconds) ? 0 : (long) seconds * 1000L;
+
+        JsonObject trip = getObject(vehicle, "trip");
+        out.startDate = getString(trip, "startDate");
+        out.routeId = getString(trip, "routeId");
+        out.tripId = getString(trip, "tripId");
+        return out.isComplete();
+    }
+
+    private static JsonObject getObject(JsonObject parent, String name) {
+        JsonElement element = parent == null ? null : parent.get(name);
+        return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+    }
+
+    private String getString(JsonObject parent, String name) {
+        JsonElement element = parent == null ? null : parent.get(name);
+        if (element == null || !element.isJsonPrimitive()) {
+            return null;
+        }
+        String value = element.getAsString();
+        return strings.intern(value, 0, value.length());
+    }
+
+    private static double getNumber(JsonObject parent, String name) {
+        JsonElement element = parent == null ? null : parent.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsDouble() : Double.NaN;
+    }
+}
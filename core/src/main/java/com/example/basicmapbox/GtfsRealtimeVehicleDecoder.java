@@ -0,0 +1,222 @@
+package com.example.basicmapbox;
+
+/**
+ * Decodes the binary protobuf form of a GTFS-realtime {@code FeedEntity} carrying a
+ * {@code VehiclePosition}.
+ * <p>
+ * Reads the protobuf wire format directly, so no generated classes or runtime library are needed,
+ * and skips every field the map does not use. Strings are resolved through a {@link StringPool}.
+ * Field numbers follow gtfs-realtime.proto. Every length is checked against the end of the
+ * message holding it before it is used, so a corrupt payload is rejected rather than read out
+ * of bounds or backwards.
+ * </p>
+ */
+final class GtfsRealtimeVehicleDecoder implements VehicleMessageDecoder {
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    /* FeedEntity */
+    private static final int ENTITY_ID = 1;
+    private static final int ENTITY_VEHICLE = 4;
+    /* VehiclePosition */
+    private static final int VEHICLE_TRIP = 1;
+    private static final int VEHICLE_POSITION = 2;
+    private static final int VEHICLE_TIMESTAMP = 5;
+    /* Position */
+    private static final int POSITION_LATITUDE = 1;
+    private static final int POSITION_LONGITUDE = 2;
+    private static final int POSITION_BEARING = 3;
+    private static final int POSITION_SPEED = 5;
+    /* TripDescriptor */
+    private static final int TRIP_TRIP_ID = 1;
+    private static final int TRIP_START_DATE = 3;
+    private static final int TRIP_ROUTE_ID = 5;
+
+    private final StringPool strings;
+
+    private byte[] buffer;
+    private int pos;
+
+    GtfsRealtimeVehicleDecoder(StringPool strings) {
+        this.strings = strings;
+    }
+
+    @Override
+    public boolean decode(Object payload, VehicleFix out) {
+        out.reset();
+        if (!(payload instanceof byte[])) {
+            return false;
+        }
+        buffer = (byte[]) payload;
+        pos = 0;
+        try {
+            readEntity(buffer.length, out);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return false;
+        } finally {
+            buffer = null;
+        }
+        return out.isComplete();
+    }
+
+    private void readEntity(int end, VehicleFix out) {
+        while (pos < end) {
+            int tag = readVarint32();
+            int field = tag >>> 3;
+            if (field == ENTITY_ID && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                out.id = readString(end);
+            } else if (field == ENTITY_VEHICLE && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                int length = readLength(end);
+                readVehicle(pos + length, out);
+            } else {
+                skipField(tag, end);
+            }
+        }
+    }
+
+    private void readVehicle(int end, VehicleFix out) {
+        while (pos < end) {
+            int tag = readVarint32();
+            int field = tag >>> 3;
+            if (field == VEHICLE_TRIP && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                int length = readLength(end);
+                readTrip(pos + length, out);
+            } else if (field == VEHICLE_POSITION && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                int length = readLength(end);
+                readPosition(pos + length, out);
+            } else if (field == VEHICLE_TIMESTAMP && (tag & 7) == WIRE_VARINT) {
+                out.timestamp = readVarint64() * 1000L;
+            } else {
+                skipField(tag, end);
+            }
+        }
+        pos = end;
+    }
+
+    private void readPosition(int end, VehicleFix out) {
+        while (pos < end) {
+            int tag = readVarint32();
+            if ((tag & 7) != WIRE_FIXED32) {
+                skipField(tag, end);
+                continue;
+            }
+            checkAvailable(4, end);
+            float value = Float.intBitsToFloat(readFixed32());
+            switch (tag >>> 3) {
+                case POSITION_LATITUDE:
+                    out.latitude = value;
+                    break;
+                case POSITION_LONGITUDE:
+                    out.longitude = value;
+                    break;
+                case POSITION_BEARING:
+                    out.bearing = value;
+                    break;
+                case POSITION_SPEED:
+                    out.speed = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        pos = end;
+    }
+
+    private void readTrip(int end, VehicleFix out) {
+        while (pos < end) {
+            int tag = readVarint32();
+            if ((tag & 7) != WIRE_LENGTH_DELIMITED) {
+                skipField(tag, end);
+                continue;
+            }
+            switch (tag >>> 3) {
+                case TRIP_TRIP_ID:
+                    out.tripId = readString(end);
+                    break;
+                case TRIP_START_DATE:
+                    out.startDate = readString(end);
+                    break;
+                case TRIP_ROUTE_ID:
+                    out.routeId = readString(end);
+                    break;
+                default:
+                    skipField(tag, end);
+                    break;
+            }
+        }
+        pos = end;
+    }
+
+    private String readString(int end) {
+        int length = readLength(end);
+        String value = strings.intern(buffer, pos, length);
+        pos += length;
+        return value;
+    }
+
+    private void skipField(int tag, int end) {
+        switch (tag & 7) {
+            case WIRE_VARINT:
+                readVarint64();
+                break;
+            case WIRE_FIXED64:
+                checkAvailable(8, end);
+                pos += 8;
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                pos += readLength(end);
+                break;
+            case WIRE_FIXED32:
+                checkAvailable(4, end);
+                pos += 4;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported wire type " + (tag & 7));
+        }
+    }
+
+    /**
+     * @return a length prefix, checked to fit between the current position and {@code end}
+     */
+    private int readLength(int end) {
+        long length = readVarint64();
+        if (length < 0 || length > end - pos) {
+            throw new IllegalArgumentException("Length " + length + " overruns the message");
+        }
+        return (int) length;
+    }
+
+    private void checkAvailable(int bytes, int end) {
+        if (bytes > end - pos) {
+            throw new IllegalArgumentException("Truncated message");
+        }
+    }
+
+    private int readVarint32() {
+        return (int) readVarint64();
+    }
+
+    private long readVarint64() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private int readFixed32() {
+        int value = (buffer[pos] & 0xFF)
+                | (buffer[pos + 1] & 0xFF) << 8
+                | (buffer[pos + 2] & 0xFF) << 16
+                | (buffer[pos + 3] & 0xFF) << 24;
+        pos += 4;
+        return value;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.basicmapbox;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Encodes a {@link VehicleFix} as the binary protobuf form of a GTFS-realtime {@code FeedEntity},
+ * the counterpart of {@link GtfsRealtimeVehicleDecoder}.
+ * <p>
+ * Writes the fields the decoder reads, and nothing else. Used to generate and record feeds, so
+ * it favours simplicity over speed. Not thread safe.
+ * </p>
+ */
+final class GtfsRealtimeVehicleEncoder {
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_FIXED32 = 5;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    /**
+     * @return a new array holding the encoded entity; missing strings and NaN numbers are left out
+     */
+    byte[] encode(VehicleFix fix) {
+        byte[] id = bytes(fix.id);
+        byte[] tripId = bytes(fix.tripId);
+        byte[] startDate = bytes(fix.startDate);
+        byte[] routeId = bytes(fix.routeId);
+
+        int tripSize = stringSize(tripId) + stringSize(startDate) + stringSize(routeId);
+        int positionSize = floatSize(fix.latitude) + floatSize(fix.longitude)
+                + floatSize(fix.bearing) + floatSize(fix.speed);
+        long seconds = fix.timestamp / 1000L;
+        int vehicleSize = 1 + varintSize(tripSize) + tripSize
+                + 1 + varintSize(positionSize) + positionSize
+                + (seconds != 0 ? 1 + varintSize(seconds) : 0);
+        int entitySize = stringSize(id) + 1 + varintSize(vehicleSize) + vehicleSize;
+
+        if (buffer.length < entitySize) {
+            buffer = new byte[Math.max(entitySize, buffer.length * 2)];
+        }
+        length = 0;
+        writeString(1, id);
+        writeTag(4, WIRE_LENGTH_DELIMITED);
+        writeVarint(vehicleSize);
+        writeTag(1, WIRE_LENGTH_DELIMITED);
+        writeVarint(tripSize);
+        writeString(1, tripId);
+        writeString(3, startDate);
+        writeString(5, routeId);
+        writeTag(2, WIRE_LENGTH_DELIMITED);
+        writeVarint(positionSize);
+        writeFloat(1, fix.latitude);
+        writeFloat(2, fix.longitude);
+        writeFloat(3, fix.bearing);
+        writeFloat(5, fix.speed);
+        if (seconds != 0) {
+            writeTag(5, WIRE_VARINT);
+            writeVarint(seconds);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void writeTag(int field, int wireType) {
+        buffer[length++] = (byte) (field << 3 | wireType);
+    }
+
+    private void writeString(int field, byte[] value) {
+        if (value == null) {
+            return;
+        }
+        writeTag(field, WIRE_LENGTH_DELIMITED);
+        writeVarint(value.length);
+        System.arraycopy(value, 0, buffer, length, value.length);
+        length += value.length;
+    }
+
+    private void writeFloat(int field, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        writeTag(field, WIRE_FIXED32);
+        int bits = Float.floatToIntBits((float) value);
+        buffer[length++] = (byte) bits;
+        buffer[length++] = (byte) (bits >>> 8);
+        buffer[length++] = (byte) (bits >>> 16);
+        buffer[length++] = (byte) (bits >>> 24);
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(UTF_8);
+    }
+
+    private static int stringSize(byte[] value) {
+        return value == null ? 0 : 1 + varintSize(value.length) + value.length;
+    }
+
+    private static int floatSize(double value) {
+        return Double.isNaN(value) ? 0 : 5;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Moves every vehicle by dead reckoning from its latest fix in a single pass per frame.
+ * <p>
+ * Each fix carries the feed timestamp it was taken at and, when the feed provides them, bearing
+ * and speed; otherwise the velocity is estimated from the previous fix. A vehicle is drawn where
+ * that velocity has taken it since the fix was taken, rather than one feed interval behind on a
+ * segment between two old fixes. Extrapolation stops after a bounded time so a bus whose updates
+ * stall does not drift off indefinitely.
+ * </p>
+ * <p>
+ * When a new fix disagrees with where the vehicle is drawn, the difference is kept as a
+ * correction which fades out linearly over the blend time, so the bus glides onto its new track
+ * instead of jumping. Differences beyond the snap distance are not blended; the bus moves there
+ * at once.
+ * </p>
+ * <p>
+ * Vehicles are addressed by their {@link VehicleStore} slot and their state is kept in primitive
+ * arrays, so a {@link #tick()} allocates nothing however many buses are moving. Positions and
+ * moving flags are written straight into the store. Time comes from an injected {@link Clock} in
+ * the same epoch as fix timestamps, so the engine can be driven deterministically outside of
+ * Android, and by a replay clock during playback.
+ * </p>
+ * <p>
+ * When a {@link Viewport} is set, vehicles whose whole remaining path lies outside it are not
+ * moved; their stored position stays put, outside the viewport, until their path overlaps it
+ * again.
+ * </p>
+ */
+final class InterpolationEngine {
+
+    /**
+     * Source of the current time in epoch milliseconds, matching fix timestamps.
+     */
+    interface Clock {
+        long millis();
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final double METRES_PER_DEGREE = 111320.0;
+    /* velocities estimated from fixes further apart than this are not trusted */
+    private static final long MAX_ESTIMATE_INTERVAL = 5 * 60 * 1000L;
+    private static final long NO_CORRECTION = Long.MIN_VALUE;
+
+    private final VehicleStore store;
+    private final Clock clock;
+    private Viewport viewport;
+    private int lastCulledCount;
+
+    private long maxExtrapolationMillis = 60000L;
+    private long blendMillis = 2000L;
+    private double snapDistanceMetres = 250.0;
+
+    private boolean[] hasFix = new boolean[INITIAL_CAPACITY];
+    private double[] fixLng = new double[INITIAL_CAPACITY];
+    private double[] fixLat = new double[INITIAL_CAPACITY];
+    private long[] fixTime = new long[INITIAL_CAPACITY];
+    /* degrees per millisecond */
+    private double[] velocityLng = new double[INITIAL_CAPACITY];
+    private double[] velocityLat = new double[INITIAL_CAPACITY];
+    /* offset from the extrapolated position at the start of the blend, in degrees */
+    private double[] correctionLng = new double[INITIAL_CAPACITY];
+    private double[] correctionLat = new double[INITIAL_CAPACITY];
+    private long[] correctionStart = filledTimes(INITIAL_CAPACITY);
+
+    /* slots currently moving, and the position of each slot in that list or -1 */
+    private int[] active = new int[INITIAL_CAPACITY];
+    private int[] activeIndex = filled(INITIAL_CAPACITY);
+    private int activeCount;
+
+    InterpolationEngine(VehicleStore store, Clock clock) {
+        this.store = store;
+        this.clock = clock;
+    }
+
+    void setViewport(Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    /**
+     * @param maxExtrapolationMillis how long after its fix a vehicle keeps moving
+     * @param blendMillis            how long a correction takes to fade out
+     * @param snapDistanceMetres     corrections larger than this are applied at once
+     */
+    void setMotion(long maxExtrapolationMillis, long blendMillis, double snapDistanceMetres) {
+        this.maxExtrapolationMillis = maxExtrapolationMillis;
+        this.blendMillis = Math.max(1L, blendMillis);
+        this.snapDistanceMetres = snapDistanceMetres;
+    }
+
+    /**
+     * @return the number of moving vehicles skipped by the last tick because they were off screen
+     */
+    int getLastCulledCount() {
+        return lastCulledCount;
+    }
+
+    /**
+     * Puts a vehicle at a fixed position as of now, forgetting its velocity.
+     */
+    void place(int slot, double longitude, double latitude) {
+        ensureCapacity(slot + 1);
+        stop(slot);
+        hasFix[slot] = true;
+        fixLng[slot] = longitude;
+        fixLat[slot] = latitude;
+        fixTime[slot] = clock.millis();
+        velocityLng[slot] = 0;
+        velocityLat[slot] = 0;
+        correctionStart[slot] = NO_CORRECTION;
+        store.setPosition(slot, longitude, latitude);
+    }
+
+    /**
+     * Stops a vehicle where it currently is.
+     */
+    void stop(int slot) {
+        if (slot < activeIndex.length && activeIndex[slot] >= 0) {
+            removeActiveAt(activeIndex[slot]);
+        }
+    }
+
+    /**
+     * Forgets everything known about a vehicle, for when its slot is freed.
+     */
+    void remove(int slot) {
+        stop(slot);
+        if (slot < hasFix.length) {
+            hasFix[slot] = false;
+            correctionStart[slot] = NO_CORRECTION;
+        }
+    }
+
+    /**
+     * Takes a new fix for a vehicle. The first fix places the vehicle; later ones blend it onto
+     * its new track.
+     *
+     * @param timestamp when the fix was taken, in the epoch of the clock
+     * @param bearing   degrees clockwise from north, or NaN if unknown
+     * @param speed     metres per second, or NaN if unknown
+     * @return false if the fix is not newer than the one the vehicle already has, and was ignored
+     */
+    boolean update(int slot, double longitude, double latitude, long timestamp, double bearing, double speed) {
+        ensureCapacity(slot + 1);
+        boolean known = hasFix[slot];
+        if (known && timestamp <= fixTime[slot]) {
+            return false;
+        }
+        long now = clock.millis();
+
+        double vLng = 0;
+        double vLat = 0;
+        double metresPerDegreeLng = METRES_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+        long interval = known ? timestamp - fixTime[slot] : 0;
+        boolean estimable = known && interval <= MAX_ESTIMATE_INTERVAL;
+        if (!Double.isNaN(speed) && !Double.isNaN(bearing)) {
+            double heading = Math.toRadians(bearing);
+            vLng = speed * Math.sin(heading) / metresPerDegreeLng / 1000.0;
+            vLat = speed * Math.cos(heading) / METRES_PER_DEGREE / 1000.0;
+        } else if (estimable) {
+            vLng = (longitude - fixLng[slot]) / interval;
+            vLat = (latitude - fixLat[slot]) / interval;
+            if (!Double.isNaN(speed)) {
+                /* the direction comes from the fixes, the magnitude from the feed */
+                double estimated = Math.hypot(vLng * metresPerDegreeLng, vLat * METRES_PER_DEGREE) * 1000.0;
+                double scale = estimated > 0 ? speed / estimated : 0;
+                vLng *= scale;
+                vLat *= scale;
+            }
+        }
+
+        double shownLng = known ? store.longitude(slot) : longitude;
+        double shownLat = known ? store.latitude(slot) : latitude;
+        hasFix[slot] = true;
+        fixLng[slot] = longitude;
+        fixLat[slot] = latitude;
+        fixTime[slot] = timestamp;
+        velocityLng[slot] = vLng;
+        velocityLat[slot] = vLat;
+
+        long elapsed = extrapolationTime(slot, now);
+        double predictedLng = longitude + vLng * elapsed;
+        double predictedLat = latitude + vLat * elapsed;
+        double offsetLng = shownLng - predictedLng;
+        double offsetLat = shownLat - predictedLat;
+        double offsetMetres = Math.hypot(offsetLng * metresPerDegreeLng, offsetLat * METRES_PER_DEGREE);
+        if (known && offsetMetres > 0 && offsetMetres <= snapDistanceMetres) {
+            correctionLng[slot] = offsetLng;
+            correctionLat[slot] = offsetLat;
+            correctionStart[slot] = now;
+        } else {
+            correctionStart[slot] = NO_CORRECTION;
+            store.setPosition(slot, predictedLng, predictedLat);
+        }
+
+        if (isMoving(slot, now)) {
+            if (activeIndex[slot] < 0) {
+                activeIndex[slot] = activeCount;
+                active[activeCount++] = slot;
+                store.setMoving(slot, true);
+            }
+        } else {
+            stop(slot);
+        }
+        return true;
+    }
+
+    /**
+     * @return true while at least one vehicle is moving
+     */
+    boolean isAnimating() {
+        return activeCount > 0;
+    }
+
+    /**
+     * Advances every moving vehicle to the current time. Vehicles stop once they have been
+     * extrapolated for the maximum time and their correction has faded out.
+     *
+     * @return the number of vehicles whose position changed
+     */
+    int tick() {
+        long now = clock.millis();
+        int moved = activeCount;
+        int culled = 0;
+        for (int i = 0; i < activeCount; ) {
+            int slot = active[i];
+            long elapsed = extrapolationTime(slot, now);
+            double lng = fixLng[slot] + velocityLng[slot] * elapsed;
+            double lat = fixLat[slot] + velocityLat[slot] * elapsed;
+            if (correctionStart[slot] != NO_CORRECTION) {
+                double remaining = 1.0 - (double) (now - correctionStart[slot]) / blendMillis;
+                if (remaining > 0) {
+                    lng += correctionLng[slot] * remaining;
+                    lat += correctionLat[slot] * remaining;
+                } else {
+                    correctionStart[slot] = NO_CORRECTION;
+                }
+            }
+            if (!isMoving(slot, now)) {
+                store.setPosition(slot, lng, lat);
+                removeActiveAt(i);
+            } else if (viewport != null && correctionStart[slot] == NO_CORRECTION
+                    && !viewport.intersects(store.longitude(slot), store.latitude(slot),
+                    fixLng[slot] + velocityLng[slot] * maxExtrapolationMillis,
+                    fixLat[slot] + velocityLat[slot] * maxExtrapolationMillis)) {
+                culled++;
+                i++;
+            } else {
+                store.setPosition(slot, lng, lat);
+                i++;
+            }
+        }
+        lastCulledCount = culled;
+        return moved - culled;
+    }
+
+    private long extrapolationTime(int slot, long now) {
+        return Math.max(0L, Math.min(maxExtrapolationMillis, now - fixTime[slot]));
+    }
+
+    private boolean isMoving(int slot, long now) {
+        boolean extrapolating = (velocityLng[slot] != 0 || velocityLat[slot] != 0)
+                && now - fixTime[slot] < maxExtrapolationMillis;
+        return extrapolating || correctionStart[slot] != NO_CORRECTION;
+    }
+
+    private void removeActiveAt(int index) {
+        int slot = active[index];
+        int last = active[--activeCount];
+        active[index] = last;
+        activeIndex[last] = index;
+        activeIndex[slot] = -1;
+        store.setMoving(slot, false);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= activeIndex.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, activeIndex.length * 2);
+        hasFix = Arrays.copyOf(hasFix, newCapacity);
+        fixLng = Arrays.copyOf(fixLng, newCapacity);
+        fixLat = Arrays.copyOf(fixLat, newCapacity);
+        fixTime = Arrays.copyOf(fixTime, newCapacity);
+        velocityLng = Arrays.copyOf(velocityLng, newCapacity);
+        velocityLat = Arrays.copyOf(velocityLat, newCapacity);
+        correctionLng = Arrays.copyOf(correctionLng, newCapacity);
+        correctionLat = Arrays.copyOf(correctionLat, newCapacity);
+        int oldCapacity = activeIndex.length;
+        correctionStart = Arrays.copyOf(correctionStart, newCapacity);
+        Arrays.fill(correctionStart, oldCapacity, newCapacity, NO_CORRECTION);
+        active = Arrays.copyOf(active, newCapacity);
+        activeIndex = Arrays.copyOf(activeIndex, newCapacity);
+        Arrays.fill(activeIndex, oldCapacity, newCapacity, -1);
+    }
+
+    private static int[] filled(int capacity) {
+        int[] array = new int[capacity];
+        Arrays.fill(array, -1);
+        return array;
+    }
+
+    private static long[] filledTimes(int capacity) {
+        long[] array = new long[capacity];
+        Arrays.fill(array, NO_CORRECTION);
+        return array;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative values with log-linear buckets, each within an eighth of its value,
+ * in the manner of HdrHistogram.
+ * <p>
+ * Recording is a few arithmetic operations and one array increment, so it can stay enabled in
+ * hot paths. A histogram has a single writer; other threads may read it while it is written and
+ * see counts which are off by the values in flight, which is fine for monitoring. Only the writer
+ * may {@link #reset()}; other threads {@link #requestReset()} instead.
+ * </p>
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+    private volatile boolean resetRequested;
+
+    void record(long value) {
+        if (resetRequested) {
+            resetRequested = false;
+            reset();
+        }
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    long count() {
+        return count;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the highest value of the bucket holding that percentile, or 0 if nothing was recorded
+     */
+    long percentile(double fraction) {
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Clears the histogram. Only called by the writer.
+     */
+    void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Has the writer clear the histogram before it next records, for threads other than the writer.
+     */
+    void requestReset() {
+        resetRequested = true;
+    }
+
+    /**
+     * Appends count, mean, median, 99th percentile and maximum, with values divided by
+     * {@code divisor} and followed by {@code unit}.
+     */
+    void describe(StringBuilder out, double divisor, String unit) {
+        out.append("n=").append(count);
+        if (count == 0) {
+            return;
+        }
+        out.append(" mean=").append(format(mean() / divisor)).append(unit)
+                .append(" p50=").append(format(percentile(0.5) / divisor)).append(unit)
+                .append(" p99=").append(format(percentile(0.99) / divisor)).append(unit)
+                .append(" max=").append(format(max / divisor)).append(unit);
+    }
+
+    private static String format(double value) {
+        return value >= 100 ? String.valueOf(Math.round(value)) : String.valueOf(Math.round(value * 10) / 10.0);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.basicmapbox;
+
+/**
+ * Timings and counts for every stage between a feed message arriving and its bus reaching a map
+ * source.
+ * <p>
+ * Each histogram and counter is written by one thread: decoding and message counts by the
+ * delivery thread, everything else by the main thread. Stage timings are in nanoseconds. Latency
+ * is kept twice: from receipt of a message to the upload of the source showing it, and from the
+ * feed timestamp of a fix to the frame that applied it, which includes the delay of the feed
+ * itself and is in milliseconds.
+ * </p>
+ * <p>
+ * Messages decoded per minute are averaged since the metrics were created or last reset, so
+ * resetting before and after a change of subscriptions measures the ingest of each.
+ * </p>
+ */
+final class PipelineMetrics {
+
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double NANOS_PER_MICRO = 1e3;
+
+    final LatencyHistogram decode = new LatencyHistogram();
+    /* applying a whole drain of the buffer */
+    final LatencyHistogram storeUpdate = new LatencyHistogram();
+    final LatencyHistogram tick = new LatencyHistogram();
+    /* writing one source */
+    final LatencyHistogram serialization = new LatencyHistogram();
+    /* handing one source to the map */
+    final LatencyHistogram upload = new LatencyHistogram();
+    /* all work of one frame */
+    final LatencyHistogram frame = new LatencyHistogram();
+    final LatencyHistogram receiptToUpload = new LatencyHistogram();
+    final LatencyHistogram feedToFrame = new LatencyHistogram();
+
+    /* delivery thread, the only writer, and read on the main thread */
+    volatile long messages;
+    volatile long undecodable;
+    /* main thread: fixes not newer than the one their vehicle already had */
+    long stale;
+    /* main thread: vehicles dropped for going without a fix */
+    long expired;
+
+    private final VehicleUpdateBuffer buffer;
+    private long rateStartNanos = System.nanoTime();
+    private long rateStartDecoded;
+
+    PipelineMetrics(VehicleUpdateBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Clears every histogram and restarts the decode rate. Counters keep running. Called on the
+     * main thread, so the decode histogram is cleared by the delivery thread when it next records.
+     */
+    void reset() {
+        rateStartNanos = System.nanoTime();
+        rateStartDecoded = messages - undecodable;
+        decode.requestReset();
+        storeUpdate.reset();
+        tick.reset();
+        serialization.reset();
+        upload.reset();
+        frame.reset();
+        receiptToUpload.reset();
+        feedToFrame.reset();
+    }
+
+    /**
+     * Appends one line per histogram and a line of counters.
+     */
+    void dump(StringBuilder out) {
+        line(out, "decode", decode, NANOS_PER_MICRO, "us");
+        line(out, "store", storeUpdate, NANOS_PER_MILLI, "ms");
+        line(out, "tick", tick, NANOS_PER_MILLI, "ms");
+        line(out, "serialize", serialization, NANOS_PER_MILLI, "ms");
+        line(out, "upload", upload, NANOS_PER_MILLI, "ms");
+        line(out, "frame", frame, NANOS_PER_MILLI, "ms");
+        line(out, "receipt>upload", receiptToUpload, NANOS_PER_MILLI, "ms");
+        line(out, "feed>frame", feedToFrame, 1, "ms");
+        out.append("messages=").append(messages)
+                .append(" undecodable=").append(undecodable)
+                .append(" stale=").append(stale)
+                .append(" expired=").append(expired)
+                .append(" merged=").append(buffer.getTotalMerged())
+                .append(" queued=").append(buffer.getPendingSize())
+                .append(" decoded/min=").append(Math.round(decodedPerMinute()))
+                .append('\n');
+    }
+
+    /**
+     * @return messages decoded per minute since the metrics were created or last reset
+     */
+    double decodedPerMinute() {
+        long elapsedNanos = System.nanoTime() - rateStartNanos;
+        return elapsedNanos <= 0 ? 0 : (messages - undecodable - rateStartDecoded) * 60e9 / elapsedNanos;
+    }
+
+    String dump() {
+        StringBuilder out = new StringBuilder(1024);
+        dump(out);
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, LatencyHistogram histogram, double divisor, String unit) {
+        out.append(name).append(": ");
+        histogram.describe(out, divisor, unit);
+        out.append('\n');
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical point clustering over vehicle slots, in the spirit of Supercluster.
+ * <p>
+ * Positions are projected to Web Mercator and bucketed into a grid per zoom level whose cells are
+ * roughly {@code radiusPixels} across on screen at that zoom. Cell sizes are powers of two, so
+ * each cell nests exactly inside one cell of the level above, and a level keeps only per-cell
+ * counts and coordinate sums. That makes moving a point incremental: its sums are adjusted on
+ * every level, and it is relinked only on the levels where it crossed a cell boundary, which
+ * stops at the first level where it did not.
+ * </p>
+ * <p>
+ * A cell holding one point reports that point's slot, recovered as the XOR of every slot that
+ * entered and left the cell, so no member lists are kept.
+ * </p>
+ */
+final class PointClusterer {
+
+    /**
+     * Receives the result of {@link #getClusters}.
+     */
+    interface Callback {
+        void onPoint(int slot);
+
+        /**
+         * @param id    identifies the cluster among all clusters of every zoom level
+         * @param count the number of points in the cluster
+         */
+        void onCluster(long id, int count, double longitude, double latitude);
+    }
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+    private static final int NONE = -1;
+
+    private final int maxZoom;
+    /* log2 of cells per tile side at zoom 0 */
+    private final int cellBits;
+    private final double finestScale;
+
+    /* per level, open addressing cell key -> cell index, and per cell aggregates */
+    private final long[][] keys;
+    private final int[][] cellIndex;
+    private final int[][] cellX;
+    private final int[][] cellY;
+    private final int[][] counts;
+    private final double[][] sumX;
+    private final double[][] sumY;
+    private final int[][] xorSlots;
+    private final int[] cellCounts;
+
+    /* per level, per slot: cell index */
+    private final int[][] cellOf;
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private boolean[] present = new boolean[0];
+
+    /**
+     * @param maxZoom      the highest zoom level which is clustered
+     * @param radiusPixels the approximate cluster size on screen
+     * @param tileSize     the size of a tile in pixels, 512 for Mapbox GL
+     */
+    PointClusterer(int maxZoom, int radiusPixels, int tileSize) {
+        this.maxZoom = maxZoom;
+        this.cellBits = Math.max(0, 31 - Integer.numberOfLeadingZeros(Math.max(1, tileSize / radiusPixels)));
+        this.finestScale = (double) (1L << (maxZoom + cellBits));
+        int levels = maxZoom + 1;
+        keys = new long[levels][];
+        cellIndex = new int[levels][];
+        cellX = new int[levels][];
+        cellY = new int[levels][];
+        counts = new int[levels][];
+        sumX = new double[levels][];
+        sumY = new double[levels][];
+        xorSlots = new int[levels][];
+        cellCounts = new int[levels];
+        cellOf = new int[levels][];
+        for (int level = 0; level < levels; level++) {
+            keys[level] = filledKeys(64);
+            cellIndex[level] = new int[64];
+            cellX[level] = new int[32];
+            cellY[level] = new int[32];
+            counts[level] = new int[32];
+            sumX[level] = new double[32];
+            sumY[level] = new double[32];
+            xorSlots[level] = new int[32];
+            cellOf[level] = new int[0];
+        }
+    }
+
+    int maxZoom() {
+        return maxZoom;
+    }
+
+    /**
+     * Inserts a slot or moves it to a new position.
+     */
+    void update(int slot, double longitude, double latitude) {
+        ensureSlots(slot + 1);
+        double newX = mercatorX(longitude);
+        double newY = mercatorY(latitude);
+        int ix = finestCell(newX);
+        int iy = finestCell(newY);
+        if (!present[slot]) {
+            for (int level = maxZoom; level >= 0; level--) {
+                int shift = maxZoom - level;
+                add(level, findOrAddCell(level, ix >> shift, iy >> shift), slot, newX, newY);
+            }
+            present[slot] = true;
+        } else {
+            double oldX = x[slot];
+            double oldY = y[slot];
+            boolean crossing = true;
+            for (int level = maxZoom; level >= 0; level--) {
+                int shift = maxZoom - level;
+                int cell = cellOf[level][slot];
+                if (crossing && (cellX[level][cell] != ix >> shift || cellY[level][cell] != iy >> shift)) {
+                    subtract(level, cell, slot, oldX, oldY);
+                    add(level, findOrAddCell(level, ix >> shift, iy >> shift), slot, newX, newY);
+                } else {
+                    crossing = false;
+                    sumX[level][cell] += newX - oldX;
+                    sumY[level][cell] += newY - oldY;
+                }
+            }
+        }
+        x[slot] = newX;
+        y[slot] = newY;
+    }
+
+    void remove(int slot) {
+        if (slot >= present.length || !present[slot]) {
+            return;
+        }
+        for (int level = maxZoom; level >= 0; level--) {
+            subtract(level, cellOf[level][slot], slot, x[slot], y[slot]);
+        }
+        present[slot] = false;
+    }
+
+    /**
+     * Reports the clusters and lone points of a zoom level inside a bounding box.
+     */
+    void getClusters(double zoom, double west, double south, double east, double north, Callback callback) {
+        int level = (int) Math.max(0, Math.min(maxZoom, Math.floor(zoom)));
+        int shift = maxZoom - level;
+        int minX = finestCell(mercatorX(west)) >> shift;
+        int maxX = finestCell(mercatorX(east)) >> shift;
+        int minY = finestCell(mercatorY(north)) >> shift;
+        int maxY = finestCell(mercatorY(south)) >> shift;
+        long area = (long) (maxX - minX + 1) * (maxY - minY + 1);
+        if (area > cellCounts[level]) {
+            for (int cell = 0; cell < cellCounts[level]; cell++) {
+                if (cellX[level][cell] >= minX && cellX[level][cell] <= maxX
+                        && cellY[level][cell] >= minY && cellY[level][cell] <= maxY) {
+                    report(level, cell, callback);
+                }
+            }
+            return;
+        }
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                int cell = findCell(level, key(cx, cy));
+                if (cell != NONE) {
+                    report(level, cell, callback);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports every cluster and lone point of a zoom level.
+     */
+    void getClusters(double zoom, Callback callback) {
+        int level = (int) Math.max(0, Math.min(maxZoom, Math.floor(zoom)));
+        for (int cell = 0; cell < cellCounts[level]; cell++) {
+            report(level, cell, callback);
+        }
+    }
+
+    private void report(int level, int cell, Callback callback) {
+        int count = counts[level][cell];
+        if (count == 1) {
+            callback.onPoint(xorSlots[level][cell]);
+        } else if (count > 1) {
+            callback.onCluster(((long) level << 32) | cell, count,
+                    longitude(sumX[level][cell] / count), latitude(sumY[level][cell] / count));
+        }
+    }
+
+    private void add(int level, int cell, int slot, double px, double py) {
+        counts[level][cell]++;
+        sumX[level][cell] += px;
+        sumY[level][cell] += py;
+        xorSlots[level][cell] ^= slot;
+        cellOf[level][slot] = cell;
+    }
+
+    private void subtract(int level, int cell, int slot, double px, double py) {
+        counts[level][cell]--;
+        if (counts[level][cell] == 0) {
+            /* reset rather than accumulate rounding error in cells which empty out */
+            sumX[level][cell] = 0;
+            sumY[level][cell] = 0;
+        } else {
+            sumX[level][cell] -= px;
+            sumY[level][cell] -= py;
+        }
+        xorSlots[level][cell] ^= slot;
+    }
+
+    private int finestCell(double mercator) {
+        return (int) Math.min(finestScale - 1, Math.floor(Math.max(0, mercator) * finestScale));
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private int findCell(int level, long key) {
+        long[] table = keys[level];
+        int mask = table.length - 1;
+        for (int index = hash(key) & mask; table[index] != EMPTY_KEY; index = (index + 1) & mask) {
+            if (table[index] == key) {
+                return cellIndex[level][index];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Cells are never removed; a cell which empties out keeps its index for when a point enters it
+     * again, so the cell count only grows with the area the fleet has covered.
+     */
+    private int findOrAddCell(int level, int cx, int cy) {
+        long key = key(cx, cy);
+        long[] table = keys[level];
+        int mask = table.length - 1;
+        int index = hash(key) & mask;
+        for (; table[index] != EMPTY_KEY; index = (index + 1) & mask) {
+            if (table[index] == key) {
+                return cellIndex[level][index];
+            }
+        }
+        int cell = cellCounts[level]++;
+        if (cell == counts[level].length) {
+            int capacity = cell * 2;
+            cellX[level] = Arrays.copyOf(cellX[level], capacity);
+            cellY[level] = Arrays.copyOf(cellY[level], capacity);
+            counts[level] = Arrays.copyOf(counts[level], capacity);
+            sumX[level] = Arrays.copyOf(sumX[level], capacity);
+            sumY[level] = Arrays.copyOf(sumY[level], capacity);
+            xorSlots[level] = Arrays.copyOf(xorSlots[level], capacity);
+        }
+        cellX[level][cell] = cx;
+        cellY[level][cell] = cy;
+        table[index] = key;
+        cellIndex[level][index] = cell;
+        if (cellCounts[level] * 2 > table.length) {
+            rehash(level);
+        }
+        return cell;
+    }
+
+    private void rehash(int level) {
+        long[] oldKeys = keys[level];
+        int[] oldIndex = cellIndex[level];
+        long[] table = filledKeys(oldKeys.length * 2);
+        int[] index = new int[oldKeys.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY_KEY) {
+                continue;
+            }
+            int position = hash(oldKeys[i]) & mask;
+            while (table[position] != EMPTY_KEY) {
+                position = (position + 1) & mask;
+            }
+            table[position] = oldKeys[i];
+            index[position] = oldIndex[i];
+        }
+        keys[level] = table;
+        cellIndex[level] = index;
+    }
+
+    private void ensureSlots(int slots) {
+        if (slots <= present.length) {
+            return;
+        }
+        int capacity = Math.max(slots, present.length * 2);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        present = Arrays.copyOf(present, capacity);
+        for (int level = 0; level <= maxZoom; level++) {
+            cellOf[level] = Arrays.copyOf(cellOf[level], capacity);
+        }
+    }
+
+    private static double mercatorX(double longitude) {
+        return longitude / 360.0 + 0.5;
+    }
+
+    private static double mercatorY(double latitude) {
+        double sin = Math.sin(Math.toRadians(latitude));
+        double y = 0.5 - 0.25 * Math.log((1 + sin) / (1 - sin)) / Math.PI;
+        return Math.max(0, Math.min(1, y));
+    }
+
+    private static double longitude(double mercatorX) {
+        return (mercatorX - 0.5) * 360.0;
+    }
+
+    private static double latitude(double mercatorY) {
+        double y = (0.5 - mercatorY) * 2 * Math.PI;
+        return Math.toDegrees(Math.atan(Math.sinh(y)));
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long[] filledKeys(int capacity) {
+        long[] array = new long[capacity];
+        Arrays.fill(array, EMPTY_KEY);
+        return array;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity ring buffers of recent fixes, one per vehicle slot.
+ * <p>
+ * All buffers share flat primitive arrays, {@code capacity} entries per slot, so the memory held
+ * per vehicle has a hard ceiling of {@code capacity * 24} bytes however long the app runs. When a
+ * buffer is full the oldest fix is evicted. Fixes which have been consumed by the animation are
+ * dropped with {@link #dropOldest(int)}.
+ * </p>
+ * <p>
+ * Optionally, fixes are simplified as they arrive: when the latest stored fix lies on the line
+ * between its predecessor and the new fix, within a distance and turn-angle tolerance, it is
+ * replaced by the new fix instead of being kept.
+ * </p>
+ */
+final class PositionHistory {
+
+    private static final double METRES_PER_DEGREE = 111320.0;
+
+    private final int capacity;
+    private double toleranceMetres;
+    private double maxTurnRadians = Math.PI;
+
+    private double[] lng;
+    private double[] lat;
+    private long[] time;
+    private int[] head;
+    private int[] count;
+
+    private long simplifiedCount;
+    private long overflowCount;
+
+    /**
+     * @param capacity the maximum number of fixes kept per vehicle, at least 2
+     * @param slots    the number of vehicle slots to allocate up front
+     */
+    PositionHistory(int capacity, int slots) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.capacity = capacity;
+        lng = new double[slots * capacity];
+        lat = new double[slots * capacity];
+        time = new long[slots * capacity];
+        head = new int[slots];
+        count = new int[slots];
+    }
+
+    /**
+     * Enables streaming simplification. A tolerance of zero disables it.
+     *
+     * @param toleranceMetres how far a fix may sit off the line through its neighbours and still be dropped
+     * @param maxTurnDegrees  the largest change of heading at a fix which may still be dropped
+     */
+    void setSimplification(double toleranceMetres, double maxTurnDegrees) {
+        this.toleranceMetres = toleranceMetres;
+        this.maxTurnRadians = Math.toRadians(maxTurnDegrees);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Empties the buffer of a slot, growing storage if the slot is new.
+     */
+    void clear(int slot) {
+        ensureSlots(slot + 1);
+        head[slot] = 0;
+        count[slot] = 0;
+    }
+
+    /**
+     * Appends a fix, evicting the oldest one if the buffer is full.
+     *
+     * @return false if the previous fix was replaced by this one instead of the buffer growing
+     */
+    boolean append(int slot, double longitude, double latitude, long timestamp) {
+        int n = count[slot];
+        if (n >= 2 && toleranceMetres > 0 && isRedundant(slot, longitude, latitude)) {
+            int last = index(slot, n - 1);
+            lng[last] = longitude;
+            lat[last] = latitude;
+            time[last] = timestamp;
+            simplifiedCount++;
+            return false;
+        }
+        if (n == capacity) {
+            dropOldest(slot);
+            overflowCount++;
+            n--;
+        }
+        int tail = index(slot, n);
+        lng[tail] = longitude;
+        lat[tail] = latitude;
+        time[tail] = timestamp;
+        count[slot] = n + 1;
+        return true;
+    }
+
+    /**
+     * Discards the oldest fix of a slot, if any.
+     */
+    void dropOldest(int slot) {
+        if (count[slot] > 0) {
+            head[slot] = (head[slot] + 1) % capacity;
+            count[slot]--;
+        }
+    }
+
+    int size(int slot) {
+        return count[slot];
+    }
+
+    /**
+     * @param i 0 for the oldest fix held, up to {@link #size(int)} - 1 for the newest
+     */
+    double longitude(int slot, int i) {
+        return lng[index(slot, i)];
+    }
+
+    double latitude(int slot, int i) {
+        return lat[index(slot, i)];
+    }
+
+    long timestamp(int slot, int i) {
+        return time[index(slot, i)];
+    }
+
+    /**
+     * @return the number of fixes merged into their successor by simplification
+     */
+    long getSimplifiedCount() {
+        return simplifiedCount;
+    }
+
+    /**
+     * @return the number of unconsumed fixes evicted because a buffer was full
+     */
+    long getOverflowCount() {
+        return overflowCount;
+    }
+
+    private int index(int slot, int i) {
+        return slot * capacity + (head[slot] + i) % capacity;
+    }
+
+    /**
+     * Checks whether the newest stored fix adds nothing to the path from its predecessor to the
+     * incoming fix. Uses an equirectangular projection, which is accurate enough over the few
+     * hundred metres between consecutive fixes.
+     */
+    private boolean isRedundant(int slot, double longitude, double latitude) {
+        int n = count[slot];
+        int a = index(slot, n - 2);
+        int b = index(slot, n - 1);
+        double scale = Math.cos(Math.toRadians(lat[a])) * METRES_PER_DEGREE;
+        double abX = (lng[b] - lng[a]) * scale;
+        double abY = (lat[b] - lat[a]) * METRES_PER_DEGREE;
+        double acX = (longitude - lng[a]) * scale;
+        double acY = (latitude - lat[a]) * METRES_PER_DEGREE;
+
+        double acLengthSquared = acX * acX + acY * acY;
+        if (acLengthSquared == 0) {
+            return abX * abX + abY * abY <= toleranceMetres * toleranceMetres;
+        }
+        double dot = abX * acX + abY * acY;
+        if (dot < 0 || dot > acLengthSquared) {
+            return false;
+        }
+        double cross = abX * acY - abY * acX;
+        if (cross * cross > toleranceMetres * toleranceMetres * acLengthSquared) {
+            return false;
+        }
+        double bcX = acX - abX;
+        double bcY = acY - abY;
+        double turn = Math.abs(Math.atan2(abX * bcY - abY * bcX, abX * bcX + abY * bcY));
+        return turn <= maxTurnRadians;
+    }
+
+    private void ensureSlots(int slots) {
+        if (slots <= head.length) {
+            return;
+        }
+        int newSlots = Math.max(slots, head.length * 2);
+        lng = Arrays.copyOf(lng, newSlots * capacity);
+        lat = Arrays.copyOf(lat, newSlots * capacity);
+        time = Arrays.copyOf(time, newSlots * capacity);
+        head = Arrays.copyOf(head, newSlots);
+        count = Arrays.copyOf(count, newSlots);
+    }
+}
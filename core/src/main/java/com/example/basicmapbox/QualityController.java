@@ -0,0 +1,158 @@
+package com.example.basicmapbox;
+
+/**
+ * Trades rendering quality for headroom when frames run over budget or the feed outpaces them.
+ * <p>
+ * Each frame reports how long its work took and how many messages were waiting to be applied.
+ * Pressure is judged on a moving average of frame time, so one slow frame does not count, and on
+ * the queue directly. While under pressure the level steps down one at a time; once frame time
+ * and queue are both well below their limits for a while, it steps back up one at a time. The
+ * gap between the two thresholds, and a minimum time between changes, keep the level from
+ * flapping.
+ * </p>
+ * <p>
+ * Levels are cumulative: each one keeps every degradation of the levels above it. Time is passed
+ * in rather than read, so the controller can be driven deterministically.
+ * </p>
+ */
+final class QualityController {
+
+    /** Everything enabled. */
+    static final int FULL = 0;
+    /** Updates are drained less often, so intermediate fixes of a vehicle are merged away. */
+    static final int COALESCE = 1;
+    /** Fewer frames per second. */
+    static final int REDUCED_RATE = 2;
+    /** No trail behind the selected bus. */
+    static final int NO_TRAIL = 3;
+    /** Only what is strictly on screen is moved and drawn. */
+    static final int STRICT_CULL = 4;
+
+    private static final String[] NAMES = {"full", "coalesce", "reduced-rate", "no-trail", "strict-cull"};
+
+    /**
+     * Notified on the thread reporting frames whenever the level changes.
+     */
+    interface Listener {
+        void onQualityChanged(int level, String reason);
+    }
+
+    /* weight of the newest frame in the moving average */
+    private static final double SMOOTHING = 0.2;
+    /* step up only below these fractions of the limits */
+    private static final double RECOVERY_FRACTION = 0.5;
+
+    private final long frameBudgetNanos;
+    private final int queueLimit;
+    private final long stepDownMillis;
+    private final long stepUpMillis;
+    private final Listener listener;
+
+    private int level = FULL;
+    private double averageFrameNanos;
+    private long pressureSinceMillis = -1;
+    private long calmSinceMillis = -1;
+    private long lastChangeMillis = Long.MIN_VALUE / 2;
+    private long changes;
+    private String lastReason = "";
+
+    /**
+     * @param frameBudgetNanos the frame work time above which quality is reduced
+     * @param queueLimit       the number of waiting messages above which quality is reduced
+     * @param stepDownMillis   how long pressure must last before each step down
+     * @param stepUpMillis     how long it must stay calm before each step up
+     */
+    QualityController(long frameBudgetNanos, int queueLimit, long stepDownMillis, long stepUpMillis,
+                      Listener listener) {
+        this.frameBudgetNanos = frameBudgetNanos;
+        this.queueLimit = queueLimit;
+        this.stepDownMillis = stepDownMillis;
+        this.stepUpMillis = stepUpMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Takes the measurements of one frame.
+     *
+     * @param frameNanos how long the work of the frame took
+     * @param queueDepth how many messages were waiting when the frame started
+     * @param nowMillis  the current time, on any monotonic clock
+     */
+    void onFrame(long frameNanos, long queueDepth, long nowMillis) {
+        averageFrameNanos = averageFrameNanos == 0 ? frameNanos
+                : averageFrameNanos + (frameNanos - averageFrameNanos) * SMOOTHING;
+        boolean slow = averageFrameNanos > frameBudgetNanos;
+        boolean backlogged = queueDepth > queueLimit;
+
+        if (slow || backlogged) {
+            calmSinceMillis = -1;
+            if (pressureSinceMillis < 0) {
+                pressureSinceMillis = nowMillis;
+            }
+            if (level < STRICT_CULL && nowMillis - pressureSinceMillis >= stepDownMillis
+                    && nowMillis - lastChangeMillis >= stepDownMillis) {
+                change(level + 1, nowMillis, slow
+                        ? "frame " + millis(averageFrameNanos) + " ms over " + millis(frameBudgetNanos) + " ms"
+                        : "queue " + queueDepth + " over " + queueLimit);
+            }
+            return;
+        }
+        pressureSinceMillis = -1;
+        boolean calm = averageFrameNanos < frameBudgetNanos * RECOVERY_FRACTION
+                && queueDepth < queueLimit * RECOVERY_FRACTION;
+        if (!calm) {
+            calmSinceMillis = -1;
+            return;
+        }
+        if (calmSinceMillis < 0) {
+            calmSinceMillis = nowMillis;
+        }
+        if (level > FULL && nowMillis - calmSinceMillis >= stepUpMillis
+                && nowMillis - lastChangeMillis >= stepUpMillis) {
+            change(level - 1, nowMillis, "recovered, frame " + millis(averageFrameNanos) + " ms, queue " + queueDepth);
+        }
+    }
+
+    int level() {
+        return level;
+    }
+
+    /**
+     * @return true if the level includes the given degradation
+     */
+    boolean atLeast(int degradation) {
+        return level >= degradation;
+    }
+
+    /**
+     * @return the number of level changes so far
+     */
+    long changeCount() {
+        return changes;
+    }
+
+    /**
+     * @return the level, why it was last changed and how often it changed
+     */
+    String describe() {
+        return "quality=" + NAMES[level] + " changes=" + changes + (changes > 0 ? " (" + lastReason + ")" : "");
+    }
+
+    static String name(int level) {
+        return NAMES[level];
+    }
+
+    private static double millis(double nanos) {
+        return Math.round(nanos / 1e5) / 10.0;
+    }
+
+    private void change(int newLevel, long nowMillis, String reason) {
+        level = newLevel;
+        lastChangeMillis = nowMillis;
+        pressureSinceMillis = -1;
+        calmSinceMillis = -1;
+        changes++;
+        lastReason = reason;
+        listener.onQualityChanged(newLevel, reason);
+    }
+}
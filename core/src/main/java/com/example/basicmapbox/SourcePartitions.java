@@ -0,0 +1,202 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Shards vehicle slots across a fixed number of map sources by the Web Mercator tile they are in.
+ * <p>
+ * Tiles are hashed onto partitions, so buses close together share a partition and a bus only
+ * changes partition when it crosses a tile edge. Every change to a bus marks its partition dirty,
+ * and only dirty partitions need to be serialized and uploaded again. Members of a partition are
+ * linked through primitive arrays, as in {@link SpatialGrid}.
+ * </p>
+ */
+final class SourcePartitions {
+
+    private static final int NONE = -1;
+
+    private final int partitionCount;
+    private final double tileScale;
+
+    private final int[] heads;
+    private final int[] memberCounts;
+    private final boolean[] dirty;
+    private final long[] uploadCounts;
+
+    /* per slot: partition, and neighbours in the partition's list */
+    private int[] partitionOf;
+    private int[] next;
+    private int[] prev;
+
+    /**
+     * @param partitionCount the number of partitions, one map source each
+     * @param tileZoom       the zoom level of the tiles which are hashed onto partitions
+     * @param slots          the number of slots to allocate up front
+     */
+    SourcePartitions(int partitionCount, int tileZoom, int slots) {
+        this.partitionCount = partitionCount;
+        this.tileScale = (double) (1L << tileZoom);
+        heads = new int[partitionCount];
+        Arrays.fill(heads, NONE);
+        memberCounts = new int[partitionCount];
+        dirty = new boolean[partitionCount];
+        uploadCounts = new long[partitionCount];
+        partitionOf = filled(slots);
+        next = new int[slots];
+        prev = new int[slots];
+    }
+
+    int partitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * Inserts a slot or moves it to a new position, marking every partition it touches dirty.
+     */
+    void update(int slot, double longitude, double latitude) {
+        ensureSlots(slot + 1);
+        int partition = partition(longitude, latitude);
+        int current = partitionOf[slot];
+        if (current != partition) {
+            if (current != NONE) {
+                unlink(slot);
+            }
+            link(slot, partition);
+        }
+        dirty[partition] = true;
+    }
+
+    void remove(int slot) {
+        if (slot < partitionOf.length && partitionOf[slot] != NONE) {
+            dirty[partitionOf[slot]] = true;
+            unlink(slot);
+        }
+    }
+
+    /**
+     * Marks the partition of a slot dirty after a change other than its position.
+     */
+    void touch(int slot) {
+        if (slot < partitionOf.length && partitionOf[slot] != NONE) {
+            dirty[partitionOf[slot]] = true;
+        }
+    }
+
+    void markAllDirty() {
+        Arrays.fill(dirty, true);
+    }
+
+    boolean isDirty(int partition) {
+        return dirty[partition];
+    }
+
+    /**
+     * @return the partition of a slot, or -1 if the slot has no position yet
+     */
+    int partitionOf(int slot) {
+        return slot < partitionOf.length ? partitionOf[slot] : NONE;
+    }
+
+    /**
+     * Clears the dirty mark of a partition once its source has been uploaded.
+     */
+    void uploaded(int partition) {
+        dirty[partition] = false;
+        uploadCounts[partition]++;
+    }
+
+    /**
+     * @return the first member of a partition, or -1 if it is empty
+     */
+    int first(int partition) {
+        return heads[partition];
+    }
+
+    /**
+     * @return the member after a slot in its partition, or -1 if it is the last one
+     */
+    int next(int slot) {
+        return next[slot];
+    }
+
+    int memberCount(int partition) {
+        return memberCounts[partition];
+    }
+
+    /**
+     * @return how many times a partition has been uploaded
+     */
+    long uploadCount(int partition) {
+        return uploadCounts[partition];
+    }
+
+    /**
+     * @return members and upload counts of every partition, for tuning the partition count
+     */
+    String describe() {
+        StringBuilder text = new StringBuilder();
+        for (int partition = 0; partition < partitionCount; partition++) {
+            if (partition > 0) {
+                text.append(", ");
+            }
+            text.append(partition).append(": ").append(memberCounts[partition])
+                    .append(" buses/").append(uploadCounts[partition]).append(" uploads");
+        }
+        return text.toString();
+    }
+
+    private int partition(double longitude, double latitude) {
+        double sin = Math.sin(Math.toRadians(latitude));
+        double y = 0.5 - 0.25 * Math.log((1 + sin) / (1 - sin)) / Math.PI;
+        int tileX = (int) Math.floor((longitude / 360.0 + 0.5) * tileScale);
+        int tileY = (int) Math.floor(Math.max(0, Math.min(1, y)) * tileScale);
+        int hash = tileX * 0x9E3779B1 ^ tileY * 0x85EBCA6B;
+        hash ^= hash >>> 16;
+        return (hash & 0x7FFFFFFF) % partitionCount;
+    }
+
+    private void link(int slot, int partition) {
+        int head = heads[partition];
+        next[slot] = head;
+        prev[slot] = NONE;
+        if (head != NONE) {
+            prev[head] = slot;
+        }
+        heads[partition] = slot;
+        partitionOf[slot] = partition;
+        memberCounts[partition]++;
+    }
+
+    private void unlink(int slot) {
+        int partition = partitionOf[slot];
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else {
+            heads[partition] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        }
+        partitionOf[slot] = NONE;
+        memberCounts[partition]--;
+        dirty[partition] = true;
+    }
+
+    private void ensureSlots(int slots) {
+        if (slots <= partitionOf.length) {
+            return;
+        }
+        int newSlots = Math.max(slots, partitionOf.length * 2);
+        int oldSlots = partitionOf.length;
+        partitionOf = Arrays.copyOf(partitionOf, newSlots);
+        Arrays.fill(partitionOf, oldSlots, newSlots, NONE);
+        next = Arrays.copyOf(next, newSlots);
+        prev = Arrays.copyOf(prev, newSlots);
+    }
+
+    private static int[] filled(int capacity) {
+        int[] array = new int[capacity];
+        Arrays.fill(array, NONE);
+        return array;
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over longitude/latitude indexing vehicle slots by their current position.
+ * <p>
+ * Each slot sits in exactly one cell, linked to the other slots of that cell through primitive
+ * arrays. Moving a slot only touches the grid when it crosses into another cell, so keeping the
+ * index in step with interpolated positions every frame is cheap. Queries only visit the cells
+ * overlapping the searched area.
+ * </p>
+ */
+final class SpatialGrid {
+
+    private static final double METRES_PER_DEGREE = 111320.0;
+    private static final int NONE = -1;
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private final double cellDegrees;
+
+    /* per slot: cell table index, and neighbours in the cell's list */
+    private int[] cellOf;
+    private int[] next;
+    private int[] prev;
+    private double[] lng;
+    private double[] lat;
+
+    /* open addressing cell key -> first slot in the cell */
+    private long[] cellKeys = filledKeys(256);
+    private int[] cellHeads = new int[256];
+    private int cellCount;
+
+    /**
+     * @param cellDegrees the size of a cell in degrees of longitude and latitude
+     * @param slots       the number of slots to allocate up front
+     */
+    SpatialGrid(double cellDegrees, int slots) {
+        this.cellDegrees = cellDegrees;
+        cellOf = filled(slots);
+        next = new int[slots];
+        prev = new int[slots];
+        lng = new double[slots];
+        lat = new double[slots];
+    }
+
+    /**
+     * Inserts a slot or moves it to a new position.
+     */
+    void update(int slot, double longitude, double latitude) {
+        ensureSlots(slot + 1);
+        lng[slot] = longitude;
+        lat[slot] = latitude;
+        long key = key(cell(longitude), cell(latitude));
+        int current = cellOf[slot];
+        if (current != NONE && cellKeys[current] == key) {
+            return;
+        }
+        if (current != NONE) {
+            unlink(slot);
+        }
+        int cell = findOrAddCell(key);
+        int head = cellHeads[cell];
+        next[slot] = head;
+        prev[slot] = NONE;
+        if (head != NONE) {
+            prev[head] = slot;
+        }
+        cellHeads[cell] = slot;
+        cellOf[slot] = cell;
+    }
+
+    void remove(int slot) {
+        if (slot < cellOf.length && cellOf[slot] != NONE) {
+            unlink(slot);
+        }
+    }
+
+    /**
+     * @return the slot closest to the position within the radius, or -1 if there is none
+     */
+    int nearest(double longitude, double latitude, double radiusMetres) {
+        double scale = Math.cos(Math.toRadians(latitude)) * METRES_PER_DEGREE;
+        double radiusLat = radiusMetres / METRES_PER_DEGREE;
+        double radiusLng = radiusMetres / Math.max(scale, 1e-6);
+        int best = NONE;
+        double bestDistance = radiusMetres * radiusMetres;
+        for (int cx = cell(longitude - radiusLng); cx <= cell(longitude + radiusLng); cx++) {
+            for (int cy = cell(latitude - radiusLat); cy <= cell(latitude + radiusLat); cy++) {
+                int cell = findCell(key(cx, cy));
+                if (cell == NONE) {
+                    continue;
+                }
+                for (int slot = cellHeads[cell]; slot != NONE; slot = next[slot]) {
+                    double dX = (lng[slot] - longitude) * scale;
+                    double dY = (lat[slot] - latitude) * METRES_PER_DEGREE;
+                    double distance = dX * dX + dY * dY;
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        best = slot;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Collects the slots inside a bounding box.
+     *
+     * @param out receives as many matching slots as it has room for
+     * @return the total number of matching slots, which may exceed {@code out.length}
+     */
+    int query(double west, double south, double east, double north, int[] out) {
+        int found = 0;
+        for (int cx = cell(west); cx <= cell(east); cx++) {
+            for (int cy = cell(south); cy <= cell(north); cy++) {
+                int cell = findCell(key(cx, cy));
+                if (cell == NONE) {
+                    continue;
+                }
+                for (int slot = cellHeads[cell]; slot != NONE; slot = next[slot]) {
+                    if (lng[slot] >= west && lng[slot] <= east && lat[slot] >= south && lat[slot] <= north) {
+                        if (found < out.length) {
+                            out[found] = slot;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private void unlink(int slot) {
+        int cell = cellOf[slot];
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else {
+            cellHeads[cell] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        }
+        cellOf[slot] = NONE;
+    }
+
+    private int cell(double degrees) {
+        return (int) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private int findCell(long key) {
+        int mask = cellKeys.length - 1;
+        for (int index = hash(key) & mask; cellKeys[index] != EMPTY_KEY; index = (index + 1) & mask) {
+            if (cellKeys[index] == key) {
+                return index;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Cells are never removed once created; an empty cell just has no head. The table only grows
+     * with the area the fleet has covered.
+     */
+    private int findOrAddCell(long key) {
+        int mask = cellKeys.length - 1;
+        int index = hash(key) & mask;
+        for (; cellKeys[index] != EMPTY_KEY; index = (index + 1) & mask) {
+            if (cellKeys[index] == key) {
+                return index;
+            }
+        }
+        if ((cellCount + 1) * 2 > cellKeys.length) {
+            growCells();
+            return findOrAddCell(key);
+        }
+        cellKeys[index] = key;
+        cellHeads[index] = NONE;
+        cellCount++;
+        return index;
+    }
+
+    private void growCells() {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        cellKeys = filledKeys(oldKeys.length * 2);
+        cellHeads = new int[oldKeys.length * 2];
+        int mask = cellKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY_KEY) {
+                continue;
+            }
+            int index = hash(oldKeys[i]) & mask;
+            while (cellKeys[index] != EMPTY_KEY) {
+                index = (index + 1) & mask;
+            }
+            cellKeys[index] = oldKeys[i];
+            cellHeads[index] = oldHeads[i];
+            for (int slot = oldHeads[i]; slot != NONE; slot = next[slot]) {
+                cellOf[slot] = index;
+            }
+        }
+    }
+
+    private void ensureSlots(int slots) {
+        if (slots <= cellOf.length) {
+            return;
+        }
+        int newSlots = Math.max(slots, cellOf.length * 2);
+        int oldSlots = cellOf.length;
+        cellOf = Arrays.copyOf(cellOf, newSlots);
+        Arrays.fill(cellOf, oldSlots, newSlots, NONE);
+        next = Arrays.copyOf(next, newSlots);
+        prev = Arrays.copyOf(prev, newSlots);
+        lng = Arrays.copyOf(lng, newSlots);
+        lat = Arrays.copyOf(lat, newSlots);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int[] filled(int capacity) {
+        int[] array = new int[capacity];
+        Arrays.fill(array, NONE);
+        return array;
+    }
+
+    private static long[] filledKeys(int capacity) {
+        long[] array = new long[capacity];
+        Arrays.fill(array, EMPTY_KEY);
+        return array;
+    }
+}
@@ -0,0 +1,346 @@
+package com.example.basicmapbox;
+
+/**
+ * Decodes the JSON form of a GTFS-realtime {@code FeedEntity} in a single pass over the text.
+ * <p>
+ * Only the fields the map needs are extracted; everything else is skipped without being
+ * materialised. Numbers are parsed in place and strings are resolved through a {@link StringPool},
+ * so a message whose id and trip metadata were seen before allocates nothing.
+ * </p>
+ */
+final class StreamingJsonVehicleDecoder implements VehicleMessageDecoder {
+
+    private static final int ENTITY = 0;
+    private static final int VEHICLE = 1;
+    private static final int POSITION = 2;
+    private static final int TRIP = 3;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final StringPool strings;
+    private final StringBuilder scratch = new StringBuilder();
+
+    private CharSequence json;
+    private int pos;
+
+    StreamingJsonVehicleDecoder(StringPool strings) {
+        this.strings = strings;
+    }
+
+    @Override
+    public boolean decode(Object payload, VehicleFix out) {
+        out.reset();
+        if (!(payload instanceof CharSequence)) {
+            return false;
+        }
+        json = (CharSequence) payload;
+        pos = 0;
+        try {
+            readObject(ENTITY, out);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return false;
+        } finally {
+            json = null;
+        }
+        return out.isComplete();
+    }
+
+    private void readObject(int context, VehicleFix out) {
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            expect('"');
+            int keyStart = pos;
+            int keyEnd = skipStringBody();
+            expect(':');
+            readMember(context, keyStart, keyEnd, out);
+            char c = next();
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("Expected , or } at " + (pos - 1));
+            }
+        }
+    }
+
+    private void readMember(int context, int keyStart, int keyEnd, VehicleFix out) {
+        switch (context) {
+            case ENTITY:
+                if (keyIs(keyStart, keyEnd, "id")) {
+                    out.id = readString();
+                } else if (keyIs(keyStart, keyEnd, "vehicle")) {
+                    readObject(VEHICLE, out);
+                } else {
+                    skipValue();
+                }
+                break;
+            case VEHICLE:
+                if (keyIs(keyStart, keyEnd, "position")) {
+                    readObject(POSITION, out);
+                } else if (keyIs(keyStart, keyEnd, "trip")) {
+                    readObject(TRIP, out);
+                } else if (keyIs(keyStart, keyEnd, "timestamp")) {
+                    double seconds = readNumber();
+                    out.timestamp = Double.isNaN(seconds) ? 0 : (long) seconds * 1000L;
+                } else {
+                    skipValue();
+                }
+                break;
+            case POSITION:
+                if (keyIs(keyStart, keyEnd, "longitude")) {
+                    out.longitude = readNumber();
+                } else if (keyIs(keyStart, keyEnd, "latitude")) {
+                    out.latitude = readNumber();
+                } else if (keyIs(keyStart, keyEnd, "bearing")) {
+                    out.bearing = readNumber();
+                } else if (keyIs(keyStart, keyEnd, "speed")) {
+                    out.speed = readNumber();
+                } else {
+                    skipValue();
+                }
+                break;
+            case TRIP:
+                if (keyIs(keyStart, keyEnd, "tripId")) {
+                    out.tripId = readString();
+                } else if (keyIs(keyStart, keyEnd, "routeId")) {
+                    out.routeId = readString();
+                } else if (keyIs(keyStart, keyEnd, "startDate")) {
+                    out.startDate = readString();
+                } else {
+                    skipValue();
+                }
+                break;
+            default:
+                skipValue();
+        }
+    }
+
+    private String readString() {
+        if (peek() == 'n') {
+            skipValue();
+            return null;
+        }
+        expect('"');
+        int start = pos;
+        while (true) {
+            char c = json.charAt(pos);
+            if (c == '"') {
+                pos++;
+                return strings.intern(json, start, pos - 1);
+            }
+            if (c == '\\') {
+                pos = start;
+                return unescapeString();
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Slow path for strings containing escapes.
+     */
+    private String unescapeString() {
+        scratch.setLength(0);
+        while (true) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return strings.intern(scratch, 0, scratch.length());
+            }
+            if (c != '\\') {
+                scratch.append(c);
+                continue;
+            }
+            char escaped = json.charAt(pos++);
+            switch (escaped) {
+                case 'b':
+                    scratch.append('\b');
+                    break;
+                case 'f':
+                    scratch.append('\f');
+                    break;
+                case 'n':
+                    scratch.append('\n');
+                    break;
+                case 'r':
+                    scratch.append('\r');
+                    break;
+                case 't':
+                    scratch.append('\t');
+                    break;
+                case 'u':
+                    scratch.append((char) Integer.parseInt(json.subSequence(pos, pos + 4).toString(), 16));
+                    pos += 4;
+                    break;
+                default:
+                    scratch.append(escaped);
+            }
+        }
+    }
+
+    /**
+     * Parses a JSON number, or a string holding one as protobuf's JSON mapping does for 64-bit
+     * integers. Values with up to 15 significant digits and 22 decimals come out as the nearest
+     * double, as {@link Double#parseDouble} gives; digits past the 18th are dropped, and with more
+     * than 15 the result can be a unit in the last place off.
+     */
+    private double readNumber() {
+        if (peek() == 'n') {
+            skipValue();
+            return Double.NaN;
+        }
+        boolean quoted = json.charAt(pos) == '"';
+        if (quoted) {
+            pos++;
+        }
+        boolean negative = json.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        int start = pos;
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (fraction) {
+                        scale++;
+                    }
+                } else if (!fraction) {
+                    scale--;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw new IllegalArgumentException("Expected number at " + pos);
+        }
+        if (pos < json.length() && (json.charAt(pos) == 'e' || json.charAt(pos) == 'E')) {
+            pos++;
+            boolean negativeExponent = json.charAt(pos) == '-';
+            if (negativeExponent || json.charAt(pos) == '+') {
+                pos++;
+            }
+            int exponent = 0;
+            while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+                exponent = exponent * 10 + (json.charAt(pos++) - '0');
+            }
+            scale += negativeExponent ? exponent : -exponent;
+        }
+        if (quoted) {
+            expect('"');
+        }
+        double value;
+        if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[scale];
+        } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[-scale];
+        } else {
+            value = mantissa * Math.pow(10, -scale);
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipValue() {
+        char c = peek();
+        switch (c) {
+            case '"':
+                pos++;
+                skipStringBody();
+                break;
+            case '{':
+            case '[':
+                skipContainer();
+                break;
+            default:
+                while (pos < json.length()) {
+                    c = json.charAt(pos);
+                    if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+                        break;
+                    }
+                    pos++;
+                }
+        }
+    }
+
+    private void skipContainer() {
+        int depth = 0;
+        do {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                skipStringBody();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Moves past the closing quote of a string whose opening quote was already consumed.
+     *
+     * @return the index of the closing quote
+     */
+    private int skipStringBody() {
+        while (true) {
+            char c = json.charAt(pos++);
+            if (c == '\\') {
+                pos++;
+            } else if (c == '"') {
+                return pos - 1;
+            }
+        }
+    }
+
+    private boolean keyIs(int start, int end, String key) {
+        if (end - start != key.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (json.charAt(i) != key.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private char peek() {
+        skipWhitespace();
+        return json.charAt(pos);
+    }
+
+    private char next() {
+        skipWhitespace();
+        return json.charAt(pos++);
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " at " + (pos - 1));
+        }
+    }
+
+    private void skipWhitespace() {
+        while (json.charAt(pos) <= ' ') {
+            pos++;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.basicmapbox;
+
+/**
+ * Maps strings to non-negative ints, such as vehicle ids to store slots, in an open addressing
+ * table with linear probing that is always at most half full.
+ * <p>
+ * Removing a key shifts back the rest of its probe run, so the table needs no tombstones and
+ * lookups do not slow down as keys come and go. Looking a key up does not allocate. Not thread
+ * safe.
+ * </p>
+ */
+final class StringIntTable {
+
+    /** Returned by {@link #get(String)} for a key not in the table. */
+    static final int ABSENT = -1;
+
+    private String[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * @param capacity the number of keys held before the table grows, a power of two
+     */
+    StringIntTable(int capacity) {
+        keys = new String[capacity * 2];
+        values = new int[capacity * 2];
+    }
+
+    /**
+     * @return the value of the key, or {@link #ABSENT} if it is not in the table
+     */
+    int get(String key) {
+        int index = find(key);
+        return index >= 0 ? values[index] : ABSENT;
+    }
+
+    /**
+     * Sets the value of a key, adding the key if it is new.
+     */
+    void put(String key, int value) {
+        int index = find(key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+        keys[-index - 1] = key;
+        values[-index - 1] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Removes a key if it is in the table.
+     */
+    void remove(String key) {
+        int index = find(key);
+        if (index >= 0) {
+            delete(index);
+            size--;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the table index holding the key, or {@code -(insertion point) - 1} if absent
+     */
+    private int find(String key) {
+        int mask = keys.length - 1;
+        int index = mix(key.hashCode()) & mask;
+        while (keys[index] != null) {
+            if (keys[index].equals(key)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -index - 1;
+    }
+
+    /**
+     * Removes a table entry, shifting back any entries of the same probe run so lookups never
+     * need tombstones.
+     */
+    private void delete(int index) {
+        int mask = keys.length - 1;
+        keys[index] = null;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == null) {
+                return;
+            }
+            int home = mix(keys[next].hashCode()) & mask;
+            boolean between = index <= next ? index < home && home <= next : index < home || home <= next;
+            if (!between) {
+                keys[index] = keys[next];
+                values[index] = values[next];
+                keys[next] = null;
+                index = next;
+            }
+        }
+    }
+
+    private void rehash(int tableSize) {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[tableSize];
+        values = new int[tableSize];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = -find(oldKeys[i]) - 1;
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.basicmapbox;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Canonicalises strings read from feed payloads without allocating when the value was seen
+ * before.
+ * <p>
+ * Vehicle ids, route ids, trip ids and dates repeat on almost every message, so decoders look
+ * them up here by the raw characters or bytes of the payload and only build a new {@link String}
+ * for values not pooled yet. The pool holds at most {@code capacity} values and starts over when
+ * it fills up.
+ * </p>
+ */
+final class StringPool {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String[] table;
+    private final int[] hashes;
+    private final int capacity;
+    private int size;
+
+    /**
+     * @param capacity the number of distinct values kept, rounded up to a power of two
+     */
+    StringPool(int capacity) {
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 2;
+        this.table = new String[tableSize];
+        this.hashes = new int[tableSize];
+        this.capacity = tableSize / 2;
+    }
+
+    /**
+     * @return the pooled string equal to {@code source.subSequence(start, end)}
+     */
+    String intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int mask = table.length - 1;
+        int index = hash & mask;
+        for (String value = table[index]; value != null; value = table[index]) {
+            if (hashes[index] == hash && matches(value, source, start, end)) {
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return add(index, hash, source.subSequence(start, end).toString());
+    }
+
+    /**
+     * @return the pooled string decoded from the UTF-8 bytes {@code source[offset, offset + length)}
+     */
+    String intern(byte[] source, int offset, int length) {
+        int hash = 0;
+        boolean ascii = true;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = source[i];
+            ascii &= b >= 0;
+            hash = 31 * hash + b;
+        }
+        if (!ascii) {
+            return new String(source, offset, length, UTF_8);
+        }
+        int mask = table.length - 1;
+        int index = hash & mask;
+        for (String value = table[index]; value != null; value = table[index]) {
+            if (hashes[index] == hash && matches(value, source, offset, length)) {
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return add(index, hash, new String(source, offset, length, UTF_8));
+    }
+
+    private String add(int index, int hash, String value) {
+        if (size == capacity) {
+            Arrays.fill(table, null);
+            size = 0;
+            index = hash & (table.length - 1);
+        }
+        table[index] = value;
+        hashes[index] = hash;
+        size++;
+        return value;
+    }
+
+    private static boolean matches(String value, CharSequence source, int start, int end) {
+        if (value.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i - start) != source.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String value, byte[] source, int offset, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != source[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.basicmapbox;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates a fleet of vehicles driving back and forth along random routes, delivered as
+ * GTFS-realtime protobuf {@code FeedEntity} messages, so the whole pipeline can be loaded with
+ * any number of buses without a network.
+ * <p>
+ * Routes are random walks around a centre point, shared by several vehicles each. Every vehicle
+ * reports at the chosen rate, and reports are spread evenly across each period rather than
+ * arriving in one burst per period. The position in a report is computed for its timestamp,
+ * which like the real feed has a resolution of one second, so rates above 1 Hz produce fixes
+ * the pipeline rejects as not newer.
+ * </p>
+ * <p>
+ * Like a real feed, only the reports of subscribed channels are delivered: the firehose, tiles
+ * at one zoom level, and routes. A report is delivered if the vehicle is in a subscribed tile or
+ * on a subscribed route, so the cost of a narrower subscription is saved before encoding.
+ * </p>
+ * <p>
+ * The generator is seeded, so a given configuration always produces the same fleet.
+ * </p>
+ */
+final class SyntheticMessageSource implements VehicleMessageSource {
+
+    private static final long TICK_MILLIS = 20L;
+    private static final int VEHICLES_PER_ROUTE = 20;
+    private static final int WAYPOINTS_PER_ROUTE = 24;
+    private static final double WAYPOINT_SPACING_METRES = 400.0;
+    private static final double MIN_SPEED = 4.0;
+    private static final double MAX_SPEED = 15.0;
+    private static final double METRES_PER_DEGREE = 111320.0;
+
+    private final int vehicleCount;
+    private final double updatesPerSecond;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "feed-synthetic");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /* per route: waypoints and the distance along the route at each of them */
+    private final double[][] routeLng;
+    private final double[][] routeLat;
+    private final double[][] routeDistance;
+    private final String[] routeIds;
+    private final HashMap<String, Integer> routeIndex = new HashMap<>();
+
+    /* per vehicle */
+    private final int[] routeOf;
+    private final double[] speed;
+    private final double[] startDistance;
+    private final String[] vehicleIds;
+    private final String[] tripIds;
+    private final String startDate;
+
+    private final GtfsRealtimeVehicleEncoder encoder = new GtfsRealtimeVehicleEncoder();
+    private final VehicleFix fix = new VehicleFix();
+    private Listener listener;
+    private long startMillis;
+    private long emitted;
+
+    /* the channels as subscribed, and the filter built from them for the delivery thread */
+    private final HashSet<String> channels = new HashSet<>();
+    private volatile Filter filter = new Filter(false, 0, new long[0], new boolean[0]);
+
+    /**
+     * @param vehicleCount     how many vehicles to generate
+     * @param updatesPerSecond how often each vehicle reports
+     * @param longitude        the centre of the area the routes are generated around
+     * @param latitude         the centre of the area the routes are generated around
+     * @param radiusMetres     how far from the centre routes may start
+     * @param seed             seeds every random choice
+     */
+    SyntheticMessageSource(int vehicleCount, double updatesPerSecond, double longitude, double latitude,
+                           double radiusMetres, long seed) {
+        this.vehicleCount = vehicleCount;
+        this.updatesPerSecond = updatesPerSecond;
+        Random random = new Random(seed);
+        double metresPerDegreeLng = METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+
+        int routeCount = Math.max(1, (vehicleCount + VEHICLES_PER_ROUTE - 1) / VEHICLES_PER_ROUTE);
+        routeLng = new double[routeCount][WAYPOINTS_PER_ROUTE];
+        routeLat = new double[routeCount][WAYPOINTS_PER_ROUTE];
+        routeDistance = new double[routeCount][WAYPOINTS_PER_ROUTE];
+        routeIds = new String[routeCount];
+        for (int route = 0; route < routeCount; route++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double distance = Math.sqrt(random.nextDouble()) * radiusMetres;
+            double x = Math.sin(angle) * distance;
+            double y = Math.cos(angle) * distance;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            for (int i = 0; i < WAYPOINTS_PER_ROUTE; i++) {
+                if (i > 0) {
+                    heading += (random.nextDouble() - 0.5) * Math.PI / 2;
+                    x += Math.sin(heading) * WAYPOINT_SPACING_METRES;
+                    y += Math.cos(heading) * WAYPOINT_SPACING_METRES;
+                    routeDistance[route][i] = routeDistance[route][i - 1] + WAYPOINT_SPACING_METRES;
+                }
+                routeLng[route][i] = longitude + x / metresPerDegreeLng;
+                routeLat[route][i] = latitude + y / METRES_PER_DEGREE;
+            }
+            routeIds[route] = "S" + route;
+            routeIndex.put(routeIds[route], route);
+        }
+
+        routeOf = new int[vehicleCount];
+        speed = new double[vehicleCount];
+        startDistance = new double[vehicleCount];
+        vehicleIds = new String[vehicleCount];
+        tripIds = new String[vehicleCount];
+        double routeLength = WAYPOINT_SPACING_METRES * (WAYPOINTS_PER_ROUTE - 1);
+        for (int vehicle = 0; vehicle < vehicleCount; vehicle++) {
+            routeOf[vehicle] = vehicle % routeCount;
+            speed[vehicle] = MIN_SPEED + random.nextDouble() * (MAX_SPEED - MIN_SPEED);
+            startDistance[vehicle] = random.nextDouble() * 2 * routeLength;
+            vehicleIds[vehicle] = "synthetic-" + vehicle;
+            tripIds[vehicle] = "trip-" + routeOf[vehicle] + "-" + vehicle;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        startDate = format.format(new Date());
+        startMillis = System.currentTimeMillis();
+    }
+
+    int vehicleCount() {
+        return vehicleCount;
+    }
+
+    /**
+     * @return when the generated fleet set off, on the wall clock
+     */
+    long startMillis() {
+        return startMillis;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        startMillis = System.currentTimeMillis();
+        executor.scheduleAtFixedRate(this::emit, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Tile channels are only honoured at the zoom of the first one subscribed.
+     */
+    @Override
+    public synchronized void subscribe(String channel) {
+        if (channels.add(channel)) {
+            filter = buildFilter();
+        }
+    }
+
+    @Override
+    public synchronized void unsubscribe(String channel) {
+        if (channels.remove(channel)) {
+            filter = buildFilter();
+        }
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void emit() {
+        deliver(listener, System.currentTimeMillis());
+    }
+
+    /**
+     * Delivers every report due by a time since the previous delivery, in the order they were
+     * due. A delivery that has fallen more than a full period behind skips ahead instead of
+     * delivering a backlog. Called by the delivery thread once started; a source that is never
+     * started can be driven by calling it directly, from one thread, on a clock of its own.
+     *
+     * @param nowMillis wall-clock time, as the source was created or started at
+     */
+    void deliver(Listener listener, long nowMillis) {
+        if (vehicleCount == 0 || updatesPerSecond <= 0) {
+            return;
+        }
+        double reportsPerMilli = vehicleCount * updatesPerSecond / 1000.0;
+        long due = (long) ((nowMillis - startMillis) * reportsPerMilli);
+        if (due - emitted > vehicleCount) {
+            emitted = due - vehicleCount;
+        }
+        Filter current = filter;
+        for (; emitted < due; emitted++) {
+            int vehicle = (int) (emitted % vehicleCount);
+            long reportMillis = startMillis + (long) (emitted / reportsPerMilli);
+            position(vehicle, reportMillis / 1000L);
+            if (current.accepts(routeOf[vehicle], fix.longitude, fix.latitude)) {
+                listener.onMessage(encoder.encode(fix));
+            }
+        }
+    }
+
+    /**
+     * Encodes the report of a vehicle at a time, in whole seconds, whatever is subscribed. Only
+     * called from the delivery thread once started.
+     */
+    byte[] report(int vehicle, long timestampSeconds) {
+        position(vehicle, timestampSeconds);
+        return encoder.encode(fix);
+    }
+
+    /**
+     * Fills {@link #fix} with the report of a vehicle at a time, in whole seconds.
+     */
+    private void position(int vehicle, long timestampSeconds) {
+        int route = routeOf[vehicle];
+        double[] distances = routeDistance[route];
+        double routeLength = distances[distances.length - 1];
+        double travelled = startDistance[vehicle]
+                + speed[vehicle] * (timestampSeconds * 1000L - startMillis) / 1000.0;
+        double along = travelled % (2 * routeLength);
+        if (along < 0) {
+            along += 2 * routeLength;
+        }
+        boolean returning = along > routeLength;
+        if (returning) {
+            along = 2 * routeLength - along;
+        }
+        int segment = Arrays.binarySearch(distances, along);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+        segment = Math.max(0, Math.min(distances.length - 2, segment));
+        double fraction = (along - distances[segment]) / (distances[segment + 1] - distances[segment]);
+        double[] lngs = routeLng[route];
+        double[] lats = routeLat[route];
+        double lng = lngs[segment] + (lngs[segment + 1] - lngs[segment]) * fraction;
+        double lat = lats[segment] + (lats[segment + 1] - lats[segment]) * fraction;
+        double dx = (lngs[segment + 1] - lngs[segment]) * Math.cos(Math.toRadians(lat));
+        double dy = lats[segment + 1] - lats[segment];
+        double bearing = Math.toDegrees(Math.atan2(dx, dy));
+        if (returning) {
+            bearing += 180;
+        }
+        bearing = (bearing + 360) % 360;
+
+        fix.id = vehicleIds[vehicle];
+        fix.longitude = lng;
+        fix.latitude = lat;
+        fix.bearing = bearing;
+        fix.speed = speed[vehicle];
+        fix.timestamp = timestampSeconds * 1000L;
+        fix.startDate = startDate;
+        fix.routeId = routeIds[route];
+        fix.tripId = tripIds[vehicle];
+    }
+
+    private Filter buildFilter() {
+        boolean all = false;
+        int zoom = -1;
+        HashSet<Long> tiles = new HashSet<>();
+        boolean[] routes = new boolean[routeIds.length];
+        for (String channel : channels) {
+            if (FeedChannels.ALL.equals(channel)) {
+                all = true;
+            } else if (FeedChannels.isRoute(channel)) {
+                Integer route = routeIndex.get(FeedChannels.routeOf(channel));
+                if (route != null) {
+                    routes[route] = true;
+                }
+            } else if (FeedChannels.isTile(channel)) {
+                int[] tile = FeedChannels.tileOf(channel);
+                if (zoom < 0) {
+                    zoom = tile[0];
+                }
+                if (tile[0] == zoom) {
+                    tiles.add(FeedChannels.tileKey(tile[1], tile[2]));
+                }
+            }
+        }
+        long[] keys = new long[tiles.size()];
+        int i = 0;
+        for (long key : tiles) {
+            keys[i++] = key;
+        }
+        Arrays.sort(keys);
+        return new Filter(all, Math.max(0, zoom), keys, routes);
+    }
+
+    /**
+     * An immutable view of the subscribed channels, replaced whole whenever they change.
+     */
+    private static final class Filter {
+        final boolean all;
+        final int zoom;
+        final long[] tiles;
+        final boolean[] routes;
+
+        Filter(boolean all, int zoom, long[] tiles, boolean[] routes) {
+            this.all = all;
+            this.zoom = zoom;
+            this.tiles = tiles;
+            this.routes = routes;
+        }
+
+        boolean accepts(int route, double longitude, double latitude) {
+            if (all || (route < routes.length && routes[route])) {
+                return true;
+            }
+            return tiles.length > 0 && Arrays.binarySearch(tiles, FeedChannels.tileKey(
+                    FeedChannels.tileX(longitude, zoom), FeedChannels.tileY(latitude, zoom))) >= 0;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.basicmapbox;
+
+/**
+ * Records the trail drawn behind the selected bus.
+ * <p>
+ * A point is only recorded once the bus has moved further than a pixel tolerance at the current
+ * zoom. The trail never holds more than {@code maxPoints}; when it fills up the older half is
+ * simplified with a coarser tolerance, and thinned if that is not enough. Publishing is rate
+ * limited, so the cost of keeping a bus selected stays constant however long it stays selected.
+ * </p>
+ */
+final class TrailRecorder {
+
+    private static final double EARTH_CIRCUMFERENCE_METRES = 40075016.686;
+    private static final double METRES_PER_DEGREE = 111320.0;
+    private static final double TILE_SIZE = 512.0;
+    private static final double COMPACTION_FACTOR = 4.0;
+
+    private final int maxPoints;
+    private final double tolerancePixels;
+    private final long minPublishIntervalMillis;
+
+    private final double[] lng;
+    private final double[] lat;
+    private int count;
+
+    private final boolean[] keep;
+    private final int[] stack;
+
+    private double toleranceMetres;
+    private boolean dirty;
+    private long lastPublishMillis = Long.MIN_VALUE;
+
+    /**
+     * @param maxPoints                the most points the trail holds, at least 4
+     * @param tolerancePixels          how far the bus must move on screen before a point is recorded
+     * @param minPublishIntervalMillis the shortest time between two publishes
+     */
+    TrailRecorder(int maxPoints, double tolerancePixels, long minPublishIntervalMillis) {
+        if (maxPoints < 4) {
+            throw new IllegalArgumentException("maxPoints must be at least 4");
+        }
+        this.maxPoints = maxPoints;
+        this.tolerancePixels = tolerancePixels;
+        this.minPublishIntervalMillis = minPublishIntervalMillis;
+        lng = new double[maxPoints];
+        lat = new double[maxPoints];
+        keep = new boolean[maxPoints];
+        stack = new int[maxPoints * 2];
+    }
+
+    /**
+     * Converts the pixel tolerance to metres at the given zoom and latitude.
+     */
+    void setZoom(double zoom, double latitude) {
+        double metresPerPixel = EARTH_CIRCUMFERENCE_METRES * Math.cos(Math.toRadians(latitude))
+                / (TILE_SIZE * Math.pow(2, zoom));
+        toleranceMetres = tolerancePixels * metresPerPixel;
+    }
+
+    /**
+     * Forgets every recorded point.
+     */
+    void reset() {
+        count = 0;
+        dirty = false;
+        lastPublishMillis = Long.MIN_VALUE;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Records a position of the bus if it is far enough from the last recorded one.
+     *
+     * @return true if the point was recorded
+     */
+    boolean add(double longitude, double latitude) {
+        if (count > 0 && distanceMetres(lng[count - 1], lat[count - 1], longitude, latitude) < toleranceMetres) {
+            return false;
+        }
+        if (count == maxPoints) {
+            compact();
+        }
+        lng[count] = longitude;
+        lat[count] = latitude;
+        count++;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Checks whether the trail changed and the publish interval has elapsed, and if so counts the
+     * trail as published.
+     */
+    boolean shouldPublish(long nowMillis) {
+        if (!dirty || count < 2 || nowMillis - lastPublishMillis < minPublishIntervalMillis) {
+            return false;
+        }
+        dirty = false;
+        lastPublishMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * Writes the trail as a single line feature.
+     */
+    String write(GeoJsonWriter writer) {
+        writer.beginFeatureCollection().beginLineStringFeature();
+        for (int i = 0; i < count; i++) {
+            writer.coordinate(lng[i], lat[i]);
+        }
+        return writer.endCoordinates().endFeature().endFeatureCollection();
+    }
+
+    /**
+     * Frees room by simplifying the older half of the trail with a coarser tolerance. The newest
+     * half is left untouched so the part nearest the bus keeps full detail.
+     */
+    private void compact() {
+        int older = count / 2;
+        simplify(older, Math.max(toleranceMetres, 1.0) * COMPACTION_FACTOR);
+        int kept = 0;
+        for (int i = 0; i <= older; i++) {
+            if (keep[i]) {
+                lng[kept] = lng[i];
+                lat[kept] = lat[i];
+                kept++;
+            }
+        }
+        if (kept > older / 2 + 1) {
+            /* the older half was too detailed to simplify, so thin it instead */
+            int thinned = 0;
+            for (int i = 0; i < kept; i++) {
+                if (i % 2 == 0 || i == kept - 1) {
+                    lng[thinned] = lng[i];
+                    lat[thinned] = lat[i];
+                    thinned++;
+                }
+            }
+            kept = thinned;
+        }
+        System.arraycopy(lng, older + 1, lng, kept, count - older - 1);
+        System.arraycopy(lat, older + 1, lat, kept, count - older - 1);
+        count = kept + count - older - 1;
+    }
+
+    /**
+     * Marks in {@link #keep} the points of {@code [0, last]} retained by Douglas-Peucker.
+     */
+    private void simplify(int last, double tolerance) {
+        for (int i = 0; i <= last; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[last] = true;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = last;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            double maxDistance = 0;
+            int farthest = -1;
+            for (int i = start + 1; i < end; i++) {
+                double distance = offsetMetres(start, end, i);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && maxDistance > tolerance) {
+                keep[farthest] = true;
+                stack[top++] = start;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = end;
+            }
+        }
+    }
+
+    /**
+     * @return the distance of point {@code i} from the segment between {@code a} and {@code b}
+     */
+    private double offsetMetres(int a, int b, int i) {
+        double scale = Math.cos(Math.toRadians(lat[a])) * METRES_PER_DEGREE;
+        double abX = (lng[b] - lng[a]) * scale;
+        double abY = (lat[b] - lat[a]) * METRES_PER_DEGREE;
+        double aiX = (lng[i] - lng[a]) * scale;
+        double aiY = (lat[i] - lat[a]) * METRES_PER_DEGREE;
+        double lengthSquared = abX * abX + abY * abY;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (aiX * abX + aiY * abY) / lengthSquared));
+        double dX = aiX - t * abX;
+        double dY = aiY - t * abY;
+        return Math.sqrt(dX * dX + dY * dY);
+    }
+
+    private static double distanceMetres(double lng1, double lat1, double lng2, double lat2) {
+        double dX = (lng2 - lng1) * Math.cos(Math.toRadians(lat1)) * METRES_PER_DEGREE;
+        double dY = (lat2 - lat1) * METRES_PER_DEGREE;
+        return Math.sqrt(dX * dX + dY * dY);
+    }
+}
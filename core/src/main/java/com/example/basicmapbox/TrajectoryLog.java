@@ -0,0 +1,624 @@
+package com.example.basicmapbox;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Append-only log of every decoded vehicle fix, kept on disk in memory-mapped segments so a full
+ * service day can be replayed without holding it in the heap.
+ * <p>
+ * Records are fixed width and addressed by a global record number: segment {@code n} holds
+ * records {@code n * recordsPerSegment} onwards, so a record is found without any lookup and
+ * dropping old segments leaves the remaining numbers valid. Each record links to the previous
+ * record of the same vehicle, and the newest record of every vehicle is tracked, so the track of
+ * one bus can be walked back without scanning the fleet. Ids, routes, trips and dates are
+ * written once to a string dictionary and referred to by index.
+ * </p>
+ * <p>
+ * A dictionary serves a run of at most {@link #DICTIONARY_SEGMENTS} consecutive segments, whose
+ * headers name it, and the segment after starts a new one. A dictionary is deleted with the last
+ * segment it serves, so strings of trips long gone do not pile up on disk or in the heap.
+ * Segments older than the retention time are pruned each time a segment fills up.
+ * </p>
+ * <p>
+ * Fixes are appended in arrival order, which only roughly follows feed time. A sparse index
+ * records the highest timestamp seen every {@link #INDEX_INTERVAL} records; as it never
+ * decreases, it can be binary searched to find where to start reading for a given time.
+ * </p>
+ * <p>
+ * Only the segment being written and a few recently read ones stay mapped at a time. The index,
+ * the dictionaries and the newest record of every vehicle live in memory and are rebuilt by
+ * {@link #open()} with a single sequential pass over the segments.
+ * </p>
+ */
+final class TrajectoryLog {
+
+    static final long NO_RECORD = -1L;
+
+    private static final int MAGIC = 0x544C4F47;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 40;
+    private static final int INDEX_INTERVAL = 1024;
+    private static final int MAX_MAPPED_SEGMENTS = 4;
+    private static final int DICTIONARY_SEGMENTS = 8;
+    private static final double E7 = 1e7;
+    private static final int NO_STRING = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String DICTIONARY_PREFIX = "strings-";
+    private static final String DICTIONARY_SUFFIX = ".dict";
+
+    /* segment header layout */
+    private static final int HEADER_COUNT = 8;
+    private static final int HEADER_DICTIONARY = 12;
+
+    /* record layout */
+    private static final int TIMESTAMP = 0;
+    private static final int VEHICLE = 8;
+    private static final int LONGITUDE = 12;
+    private static final int LATITUDE = 16;
+    private static final int START_DATE = 20;
+    private static final int ROUTE = 24;
+    private static final int TRIP = 28;
+    private static final int PREVIOUS = 32;
+
+    private static final class Segment {
+        final long number;
+        final File file;
+        Dictionary dictionary;
+        int count;
+        MappedByteBuffer buffer;
+
+        Segment(long number, File file) {
+            this.number = number;
+            this.file = file;
+        }
+    }
+
+    private static final class Dictionary {
+        final int number;
+        final File file;
+        /* the segment number the dictionary was started at */
+        long firstSegment;
+        final ArrayList<String> strings = new ArrayList<>();
+        final HashMap<String, Integer> refs = new HashMap<>();
+        /* per vehicle string ref: newest record */
+        long[] heads = new long[0];
+        /* the number of segments held which it serves */
+        int segmentCount;
+
+        Dictionary(int number, File file) {
+            this.number = number;
+            this.file = file;
+        }
+
+        String string(int ref) {
+            return ref >= 0 && ref < strings.size() ? strings.get(ref) : null;
+        }
+
+        long head(String id) {
+            Integer vehicle = refs.get(id);
+            return vehicle == null || vehicle >= heads.length ? NO_RECORD : heads[vehicle];
+        }
+    }
+
+    private final Object lock = new Object();
+    private final File directory;
+    private final int segmentBytes;
+    private final int recordsPerSegment;
+    private final long retentionMillis;
+
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    /* most recently used last, never holds the segment being written */
+    private final ArrayList<Segment> mapped = new ArrayList<>();
+
+    /* oldest first, the last one serving the segment being written */
+    private final ArrayList<Dictionary> dictionaries = new ArrayList<>();
+    private DataOutputStream dictionaryOut;
+
+    /* sparse time index: highest timestamp up to and including a record */
+    private long[] indexTimes = new long[64];
+    private long[] indexRecords = new long[64];
+    private int indexCount;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    private long firstRecord;
+    private long endRecord;
+    private boolean open;
+
+    /**
+     * @param directory       where segments and dictionaries are kept
+     * @param segmentBytes    the size of a segment file
+     * @param retentionMillis how long records are kept, checked against the wall clock each time
+     *                        a segment fills up
+     */
+    TrajectoryLog(File directory, int segmentBytes, long retentionMillis) {
+        this.directory = directory;
+        this.recordsPerSegment = (segmentBytes - HEADER_BYTES) / RECORD_BYTES;
+        this.segmentBytes = HEADER_BYTES + recordsPerSegment * RECORD_BYTES;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Opens the log, rebuilding the in-memory index from the segments on disk. Fixes appended
+     * before the log is open are dropped.
+     */
+    void open() throws IOException {
+        synchronized (lock) {
+            if (open) {
+                return;
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+            long[] numbers = new long[files == null ? 0 : files.length];
+            for (int i = 0; i < numbers.length; i++) {
+                String name = files[i].getName();
+                numbers[i] = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            }
+            Arrays.sort(numbers);
+            for (long number : numbers) {
+                if (!segments.isEmpty() && number != segments.get(segments.size() - 1).number + 1) {
+                    /* records are addressed by segment number, so the log must stay contiguous */
+                    break;
+                }
+                Segment segment = new Segment(number, segmentFile(number));
+                MappedByteBuffer buffer = map(segment.file);
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    break;
+                }
+                int dictionaryNumber = buffer.getInt(HEADER_DICTIONARY);
+                Dictionary dictionary = dictionaries.isEmpty() ? null : dictionaries.get(dictionaries.size() - 1);
+                if (dictionary == null || dictionary.number != dictionaryNumber) {
+                    if (dictionary != null && dictionaryNumber != dictionary.number + 1) {
+                        break;
+                    }
+                    dictionary = readDictionary(dictionaryNumber);
+                    dictionary.firstSegment = number;
+                    dictionaries.add(dictionary);
+                }
+                segment.dictionary = dictionary;
+                dictionary.segmentCount++;
+                segment.count = Math.min(recordsPerSegment, buffer.getInt(HEADER_COUNT));
+                segment.buffer = buffer;
+                if (segments.isEmpty()) {
+                    firstRecord = number * recordsPerSegment;
+                }
+                segments.add(segment);
+                long base = number * recordsPerSegment;
+                for (int i = 0; i < segment.count; i++) {
+                    int position = HEADER_BYTES + i * RECORD_BYTES;
+                    indexRecord(dictionary, base + i, buffer.getLong(position + TIMESTAMP), buffer.getInt(position + VEHICLE));
+                }
+                endRecord = base + segment.count;
+                segment.buffer = null;
+            }
+            deleteUnusedDictionaries();
+            if (!segments.isEmpty()) {
+                Segment last = segments.get(segments.size() - 1);
+                last.buffer = map(last.file);
+                dictionaryOut = new DataOutputStream(new FileOutputStream(last.dictionary.file, true));
+            }
+            open = true;
+        }
+    }
+
+    /**
+     * Appends a fix. Safe to call from any thread.
+     *
+     * @return false if the log is not open or the fix could not be written
+     */
+    boolean append(VehicleFix fix) {
+        synchronized (lock) {
+            if (!open || fix.id == null) {
+                return false;
+            }
+            try {
+                Segment segment = writableSegment();
+                Dictionary dictionary = segment.dictionary;
+                int vehicle = stringRef(dictionary, fix.id);
+                long previous = vehicle < dictionary.heads.length ? dictionary.heads[vehicle] : NO_RECORD;
+                if (previous == NO_RECORD) {
+                    /* the first record under this dictionary may continue a track from an older one */
+                    previous = headOf(fix.id);
+                }
+                long timestamp = fix.timestamp != 0 ? fix.timestamp : System.currentTimeMillis();
+                long record = segment.number * recordsPerSegment + segment.count;
+                int position = HEADER_BYTES + segment.count * RECORD_BYTES;
+                MappedByteBuffer buffer = segment.buffer;
+                buffer.putLong(position + TIMESTAMP, timestamp);
+                buffer.putInt(position + VEHICLE, vehicle);
+                buffer.putInt(position + LONGITUDE, (int) Math.round(fix.longitude * E7));
+                buffer.putInt(position + LATITUDE, (int) Math.round(fix.latitude * E7));
+                buffer.putInt(position + START_DATE, stringRef(dictionary, fix.startDate));
+                buffer.putInt(position + ROUTE, stringRef(dictionary, fix.routeId));
+                buffer.putInt(position + TRIP, stringRef(dictionary, fix.tripId));
+                buffer.putLong(position + PREVIOUS, previous);
+                /* publish the record only once it is complete */
+                buffer.putInt(HEADER_COUNT, ++segment.count);
+                indexRecord(dictionary, record, timestamp, vehicle);
+                endRecord = record + 1;
+                return true;
+            } catch (IOException err) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the first record still held, equal to {@link #endRecord()} when the log is empty
+     */
+    long firstRecord() {
+        synchronized (lock) {
+            return firstRecord;
+        }
+    }
+
+    /**
+     * @return one past the newest record
+     */
+    long endRecord() {
+        synchronized (lock) {
+            return endRecord;
+        }
+    }
+
+    /**
+     * @return the highest timestamp logged, or {@link Long#MIN_VALUE} when the log is empty
+     */
+    long maxTimestamp() {
+        synchronized (lock) {
+            return maxTimestamp;
+        }
+    }
+
+    /**
+     * Finds where to start reading to see every record logged at or after a time, assuming
+     * fixes arrive no later than {@code toleranceMillis} after their timestamp.
+     */
+    long seek(long timestamp, long toleranceMillis) {
+        synchronized (lock) {
+            long target = timestamp - toleranceMillis;
+            int low = 0;
+            int high = indexCount - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (indexTimes[mid] < target) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found < 0 ? firstRecord : Math.max(firstRecord, indexRecords[found]);
+        }
+    }
+
+    /**
+     * @return the newest record of a vehicle, or {@link #NO_RECORD}
+     */
+    long lastRecordOf(String id) {
+        synchronized (lock) {
+            return headOf(id);
+        }
+    }
+
+    /**
+     * @return the record of the same vehicle before this one, or {@link #NO_RECORD}
+     */
+    long previousRecordOf(long record) {
+        synchronized (lock) {
+            Segment segment = segmentOf(record);
+            if (segment == null) {
+                return NO_RECORD;
+            }
+            long previous = segment.buffer.getLong(positionOf(record) + PREVIOUS);
+            return previous >= firstRecord ? previous : NO_RECORD;
+        }
+    }
+
+    /**
+     * @return the timestamp of a record, or {@link #NO_RECORD} if it is no longer held
+     */
+    long timestampOf(long record) {
+        synchronized (lock) {
+            Segment segment = segmentOf(record);
+            return segment == null ? NO_RECORD : segment.buffer.getLong(positionOf(record) + TIMESTAMP);
+        }
+    }
+
+    /**
+     * Reads a record into a fix.
+     *
+     * @return false if the record is no longer held
+     */
+    boolean read(long record, VehicleFix out) {
+        synchronized (lock) {
+            Segment segment = segmentOf(record);
+            if (segment == null) {
+                return false;
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            Dictionary dictionary = segment.dictionary;
+            int position = positionOf(record);
+            out.reset();
+            out.timestamp = buffer.getLong(position + TIMESTAMP);
+            out.id = dictionary.string(buffer.getInt(position + VEHICLE));
+            out.longitude = buffer.getInt(position + LONGITUDE) / E7;
+            out.latitude = buffer.getInt(position + LATITUDE) / E7;
+            out.startDate = dictionary.string(buffer.getInt(position + START_DATE));
+            out.routeId = dictionary.string(buffer.getInt(position + ROUTE));
+            out.tripId = dictionary.string(buffer.getInt(position + TRIP));
+            return out.id != null;
+        }
+    }
+
+    /**
+     * Deletes whole segments holding nothing newer than a time, along with each dictionary
+     * whose segments are all gone.
+     */
+    void pruneBefore(long timestamp) {
+        synchronized (lock) {
+            prune(timestamp);
+        }
+    }
+
+    void close() {
+        synchronized (lock) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            if (!segments.isEmpty()) {
+                Segment last = segments.get(segments.size() - 1);
+                if (last.buffer != null) {
+                    last.buffer.force();
+                }
+            }
+            try {
+                if (dictionaryOut != null) {
+                    dictionaryOut.close();
+                }
+            } catch (IOException ignored) {
+                /* every entry was flushed as it was written */
+            }
+        }
+    }
+
+    private void prune(long timestamp) {
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            long end = (oldest.number + 1) * recordsPerSegment;
+            /* the entry covering the last record of the segment bounds every timestamp in it */
+            int covering = -1;
+            while (covering + 1 < indexCount && indexRecords[covering + 1] < end) {
+                covering++;
+            }
+            if (covering < 0 || indexTimes[covering] >= timestamp) {
+                return;
+            }
+            segments.remove(0);
+            mapped.remove(oldest);
+            oldest.buffer = null;
+            if (!oldest.file.delete()) {
+                return;
+            }
+            firstRecord = segments.get(0).number * recordsPerSegment;
+            /* the covering entry may reach into the next segment, so it stays, moved up */
+            System.arraycopy(indexTimes, covering, indexTimes, 0, indexCount - covering);
+            System.arraycopy(indexRecords, covering, indexRecords, 0, indexCount - covering);
+            indexCount -= covering;
+            indexRecords[0] = Math.max(indexRecords[0], firstRecord);
+            if (--oldest.dictionary.segmentCount == 0) {
+                /* never the dictionary being written, which serves the last segment */
+                dictionaries.remove(oldest.dictionary);
+                oldest.dictionary.file.delete();
+            }
+        }
+    }
+
+    private long headOf(String id) {
+        for (int i = dictionaries.size() - 1; i >= 0; i--) {
+            long head = dictionaries.get(i).head(id);
+            if (head != NO_RECORD) {
+                return head >= firstRecord ? head : NO_RECORD;
+            }
+        }
+        return NO_RECORD;
+    }
+
+    private void indexRecord(Dictionary dictionary, long record, long timestamp, int vehicle) {
+        long[] heads = dictionary.heads;
+        if (vehicle >= heads.length) {
+            int oldLength = heads.length;
+            heads = Arrays.copyOf(heads, Math.max(vehicle + 1, oldLength * 2));
+            Arrays.fill(heads, oldLength, heads.length, NO_RECORD);
+            dictionary.heads = heads;
+        }
+        if (vehicle >= 0) {
+            heads[vehicle] = record;
+        }
+        boolean advanced = timestamp > maxTimestamp;
+        if (advanced) {
+            maxTimestamp = timestamp;
+        }
+        if (record % INDEX_INTERVAL == 0 || indexCount == 0) {
+            if (indexCount == indexTimes.length) {
+                indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+                indexRecords = Arrays.copyOf(indexRecords, indexCount * 2);
+            }
+            indexTimes[indexCount] = maxTimestamp;
+            indexRecords[indexCount] = record;
+            indexCount++;
+        } else if (advanced) {
+            /* keep the newest entry covering its whole stretch of records */
+            indexTimes[indexCount - 1] = maxTimestamp;
+        }
+    }
+
+    private Segment writableSegment() throws IOException {
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last != null && last.count < recordsPerSegment) {
+            return last;
+        }
+        long number = last == null ? 0 : last.number + 1;
+        Dictionary dictionary = last == null ? null : last.dictionary;
+        if (dictionary == null || number - dictionary.firstSegment >= DICTIONARY_SEGMENTS) {
+            dictionary = startDictionary(dictionary == null ? 0 : dictionary.number + 1);
+            dictionary.firstSegment = number;
+        }
+        Segment segment = new Segment(number, segmentFile(number));
+        segment.buffer = map(segment.file);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.buffer.putInt(HEADER_COUNT, 0);
+        segment.buffer.putInt(HEADER_DICTIONARY, dictionary.number);
+        segment.dictionary = dictionary;
+        dictionary.segmentCount++;
+        if (last != null) {
+            last.buffer.force();
+            last.buffer = null;
+        } else {
+            firstRecord = number * recordsPerSegment;
+        }
+        segments.add(segment);
+        if (last != null && retentionMillis > 0) {
+            prune(System.currentTimeMillis() - retentionMillis);
+        }
+        return segment;
+    }
+
+    /**
+     * Starts an empty dictionary, to be written from the next segment on.
+     */
+    private Dictionary startDictionary(int number) throws IOException {
+        Dictionary dictionary = new Dictionary(number, dictionaryFile(number));
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(dictionary.file, false));
+        if (dictionaryOut != null) {
+            dictionaryOut.close();
+        }
+        dictionaryOut = out;
+        dictionaries.add(dictionary);
+        return dictionary;
+    }
+
+    /**
+     * @return the segment holding a record, with its segment mapped, or null if the record is
+     * not held
+     */
+    private Segment segmentOf(long record) {
+        if (record < firstRecord || record >= endRecord || segments.isEmpty()) {
+            return null;
+        }
+        long number = record / recordsPerSegment;
+        Segment segment = segments.get((int) (number - segments.get(0).number));
+        if (segment.buffer != null) {
+            if (mapped.remove(segment)) {
+                mapped.add(segment);
+            }
+            return segment;
+        }
+        try {
+            segment.buffer = map(segment.file);
+        } catch (IOException err) {
+            return null;
+        }
+        mapped.add(segment);
+        if (mapped.size() > MAX_MAPPED_SEGMENTS) {
+            /* dropping the reference lets the mapping be released */
+            mapped.remove(0).buffer = null;
+        }
+        return segment;
+    }
+
+    private int positionOf(long record) {
+        return HEADER_BYTES + (int) (record % recordsPerSegment) * RECORD_BYTES;
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "rw")) {
+            MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private File segmentFile(long number) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private File dictionaryFile(int number) {
+        return new File(directory, String.format("%s%08d%s", DICTIONARY_PREFIX, number, DICTIONARY_SUFFIX));
+    }
+
+    private int stringRef(Dictionary dictionary, String value) throws IOException {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer ref = dictionary.refs.get(value);
+        if (ref == null) {
+            /* flushed before any record refers to it */
+            dictionaryOut.writeUTF(value);
+            dictionaryOut.flush();
+            ref = dictionary.strings.size();
+            dictionary.strings.add(value);
+            dictionary.refs.put(value, ref);
+        }
+        return ref;
+    }
+
+    private Dictionary readDictionary(int number) throws IOException {
+        Dictionary dictionary = new Dictionary(number, dictionaryFile(number));
+        if (!dictionary.file.isFile()) {
+            return dictionary;
+        }
+        try (RandomAccessFile input = new RandomAccessFile(dictionary.file, "rw")) {
+            long complete = 0;
+            try {
+                while (complete < input.length()) {
+                    String value = input.readUTF();
+                    dictionary.refs.put(value, dictionary.strings.size());
+                    dictionary.strings.add(value);
+                    complete = input.getFilePointer();
+                }
+            } catch (EOFException end) {
+                /* an entry cut short by a crash, drop it so new entries line up again */
+                input.setLength(complete);
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Deletes dictionary files no segment refers to, such as those of pruned segments whose
+     * deletion was interrupted.
+     */
+    private void deleteUnusedDictionaries() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(DICTIONARY_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            boolean used = false;
+            for (Dictionary dictionary : dictionaries) {
+                used |= dictionary.file.equals(file);
+            }
+            if (!used) {
+                file.delete();
+            }
+        }
+    }
+}
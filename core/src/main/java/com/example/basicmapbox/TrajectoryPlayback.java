@@ -0,0 +1,130 @@
+package com.example.basicmapbox;
+
+import java.util.HashMap;
+
+/**
+ * Replays a {@link TrajectoryLog} from a past time at a chosen speed, handing fixes to the same
+ * consumer live updates go through.
+ * <p>
+ * {@link #seek} reconstructs the fleet as it stood at the requested time: the newest fix of every
+ * vehicle at or before it, found by reading only the stretch of the log the time index points
+ * at. {@link #advance} then hands over, in log order, every fix whose timestamp the playback
+ * clock has passed.
+ * </p>
+ */
+final class TrajectoryPlayback {
+
+    private static final long NO_CURSOR = -1L;
+
+    private final TrajectoryLog log;
+    private final long lateToleranceMillis;
+    private final int maxFixesPerAdvance;
+    private final VehicleFix fix = new VehicleFix();
+
+    private long startTimestamp;
+    private long startClockMillis;
+    private double speed = 1.0;
+    /* fixes at or before this time are part of the state seek() reconstructed */
+    private long floorTimestamp;
+    private long cursor;
+
+    /**
+     * @param lateToleranceMillis how long after its timestamp a fix may have been logged
+     * @param maxFixesPerAdvance  bounds the work of one {@link #advance} call
+     */
+    TrajectoryPlayback(TrajectoryLog log, long lateToleranceMillis, int maxFixesPerAdvance) {
+        this.log = log;
+        this.lateToleranceMillis = lateToleranceMillis;
+        this.maxFixesPerAdvance = maxFixesPerAdvance;
+    }
+
+    /**
+     * Moves playback to a past time and hands over the state of the fleet at that time.
+     *
+     * @param speed       how many milliseconds of feed time pass per millisecond of the clock
+     * @param clockMillis the current time of the clock later passed to {@link #advance}
+     * @return the number of vehicles handed over
+     */
+    int seek(long timestamp, double speed, long clockMillis, VehicleUpdateBuffer.Consumer consumer) {
+        this.startTimestamp = timestamp;
+        this.startClockMillis = clockMillis;
+        this.speed = speed;
+        this.floorTimestamp = timestamp;
+
+        HashMap<String, Long> latest = new HashMap<>();
+        HashMap<String, Long> latestTime = new HashMap<>();
+        long end = log.endRecord();
+        long record = log.seek(timestamp, lateToleranceMillis);
+        cursor = NO_CURSOR;
+        for (; record < end; record++) {
+            long recordTime = log.timestampOf(record);
+            if (recordTime > timestamp + lateToleranceMillis) {
+                break;
+            }
+            if (recordTime > timestamp) {
+                if (cursor == NO_CURSOR) {
+                    cursor = record;
+                }
+                continue;
+            }
+            if (!log.read(record, fix)) {
+                continue;
+            }
+            Long previous = latestTime.get(fix.id);
+            if (previous == null || previous <= recordTime) {
+                latest.put(fix.id, record);
+                latestTime.put(fix.id, recordTime);
+            }
+        }
+        if (cursor == NO_CURSOR) {
+            cursor = record;
+        }
+        for (Long newest : latest.values()) {
+            if (log.read(newest, fix)) {
+                consumer.accept(fix);
+            }
+        }
+        return latest.size();
+    }
+
+    /**
+     * Hands over every fix the playback clock has passed since the previous call.
+     *
+     * @return the number of fixes handed over
+     */
+    int advance(long clockMillis, VehicleUpdateBuffer.Consumer consumer) {
+        long now = playbackTime(clockMillis);
+        long end = log.endRecord();
+        int handed = 0;
+        while (cursor < end && handed < maxFixesPerAdvance) {
+            long recordTime = log.timestampOf(cursor);
+            if (recordTime > now) {
+                break;
+            }
+            if (recordTime > floorTimestamp && log.read(cursor, fix)) {
+                consumer.accept(fix);
+                handed++;
+            }
+            cursor++;
+        }
+        return handed;
+    }
+
+    /**
+     * @return the feed time being shown at a given clock time
+     */
+    long playbackTime(long clockMillis) {
+        return startTimestamp + (long) ((clockMillis - startClockMillis) * speed);
+    }
+
+    double speed() {
+        return speed;
+    }
+
+    /**
+     * @return true once playback has caught up with the newest logged fix
+     */
+    boolean isFinished(long clockMillis) {
+        return cursor >= log.endRecord() && playbackTime(clockMillis) >= log.maxTimestamp();
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.basicmapbox;
+
+/**
+ * Mutable record of the fields the map needs from one GTFS-realtime vehicle position.
+ * <p>
+ * Decoders fill a reused instance instead of allocating one per message. Optional numeric fields
+ * are {@code NaN} or {@code 0} when the feed does not provide them.
+ * </p>
+ */
+final class VehicleFix {
+
+    String id;
+    double longitude;
+    double latitude;
+    /* degrees clockwise from north */
+    double bearing;
+    /* metres per second */
+    double speed;
+    /* epoch milliseconds of the fix */
+    long timestamp;
+    String startDate;
+    String routeId;
+    String tripId;
+    /* System.nanoTime() when the message carrying the fix arrived, or 0 if unknown */
+    long receivedNanos;
+
+    VehicleFix() {
+        reset();
+    }
+
+    void reset() {
+        id = null;
+        longitude = Double.NaN;
+        latitude = Double.NaN;
+        bearing = Double.NaN;
+        speed = Double.NaN;
+        timestamp = 0;
+        startDate = null;
+        routeId = null;
+        tripId = null;
+        receivedNanos = 0;
+    }
+
+    void copyFrom(VehicleFix other) {
+        id = other.id;
+        longitude = other.longitude;
+        latitude = other.latitude;
+        bearing = other.bearing;
+        speed = other.speed;
+        timestamp = other.timestamp;
+        startDate = other.startDate;
+        routeId = other.routeId;
+        tripId = other.tripId;
+        receivedNanos = other.receivedNanos;
+    }
+
+    /**
+     * @return true if the record identifies a vehicle and its position
+     */
+    boolean isComplete() {
+        return id != null && !Double.isNaN(longitude) && !Double.isNaN(latitude);
+    }
+}
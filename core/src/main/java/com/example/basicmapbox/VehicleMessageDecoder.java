@@ -0,0 +1,17 @@
+package com.example.basicmapbox;
+
+/**
+ * Turns one feed message payload into a {@link VehicleFix}.
+ * <p>
+ * Implementations are not thread safe; each delivery thread should own its decoder.
+ * </p>
+ */
+interface VehicleMessageDecoder {
+
+    /**
+     * Decodes a payload into a reused record, overwriting all of its fields.
+     *
+     * @return true if the payload held a complete vehicle position
+     */
+    boolean decode(Object payload, VehicleFix out);
+}
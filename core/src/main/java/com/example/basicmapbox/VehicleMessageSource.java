@@ -0,0 +1,50 @@
+package com.example.basicmapbox;
+
+import java.io.IOException;
+
+/**
+ * Where raw vehicle messages come from: the live feed, a recording, or a generator.
+ * <p>
+ * A source hands every payload of the channels it is subscribed to, in the form a
+ * {@link FeedPayloadDecoder} accepts, to its listener on a single delivery thread of its own, so
+ * the listener may keep one decoder. The source also owns the clock its fix timestamps are in,
+ * which is the wall clock for a live feed but runs faster, and from the past, when a recording
+ * is replayed at a speed-up factor.
+ * </p>
+ */
+interface VehicleMessageSource {
+
+    /**
+     * Receives every message of a source, on its delivery thread.
+     */
+    interface Listener {
+        void onMessage(Object payload);
+    }
+
+    /**
+     * Starts delivering messages of the subscribed channels. A source is started at most once.
+     *
+     * @throws IOException if the source could not be opened
+     */
+    void start(Listener listener) throws IOException;
+
+    /**
+     * Adds one of the {@link FeedChannels} to the delivered messages. Channels may be changed
+     * before and after the source is started, from one thread.
+     *
+     * @throws IOException if the channel could not be subscribed
+     */
+    void subscribe(String channel) throws IOException;
+
+    void unsubscribe(String channel);
+
+    /**
+     * Stops delivery and releases the source. Messages may still arrive while this returns.
+     */
+    void stop();
+
+    /**
+     * @return the current time in the epoch of the fix timestamps this source delivers
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,321 @@
+package com.example.basicmapbox;
+
+import java.util.Arrays;
+
+/**
+ * Holds the state of every tracked vehicle in parallel primitive arrays.
+ * <p>
+ * Each vehicle id is interned once to a dense int slot; everything else addresses the vehicle by
+ * that slot. Live slots are kept in a packed list so iterating the fleet costs nothing for slots
+ * which have been freed, and freed slots are reused by the next new vehicle. Recent fixes are kept
+ * in a bounded {@link PositionHistory} sharing the same slots, and every position change is
+ * mirrored into a {@link SpatialGrid} so vehicles can be found by location, into a
+ * {@link PointClusterer} for low zoom views, and into {@link SourcePartitions} so only the map
+ * sources holding changed vehicles are uploaded.
+ * </p>
+ * <p>
+ * Trip attributes are held as codes into one {@link AttributeDictionary} per attribute, so the
+ * store keeps a few ints per vehicle rather than string references, and a fix repeating the trip
+ * the vehicle already has changes nothing.
+ * </p>
+ */
+final class VehicleStore {
+
+    static final int NO_SLOT = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final double GRID_CELL_DEGREES = 0.005;
+    private static final int CLUSTER_MAX_ZOOM = 13;
+    private static final int CLUSTER_RADIUS_PIXELS = 64;
+    private static final int TILE_SIZE = 512;
+    private static final int PARTITION_COUNT = 16;
+    private static final int PARTITION_TILE_ZOOM = 12;
+
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private double[] lng = new double[INITIAL_CAPACITY];
+    private double[] lat = new double[INITIAL_CAPACITY];
+    private boolean[] moving = new boolean[INITIAL_CAPACITY];
+    private int selectedSlot = NO_SLOT;
+    private final AttributeDictionary startDates = new AttributeDictionary();
+    private final AttributeDictionary routeIds = new AttributeDictionary();
+    private final AttributeDictionary tripIds = new AttributeDictionary();
+    private int[] startDate = codes(INITIAL_CAPACITY);
+    private int[] routeId = codes(INITIAL_CAPACITY);
+    private int[] tripId = codes(INITIAL_CAPACITY);
+    private final PositionHistory history;
+    private final SpatialGrid grid = new SpatialGrid(GRID_CELL_DEGREES, INITIAL_CAPACITY);
+    private final PointClusterer clusters = new PointClusterer(CLUSTER_MAX_ZOOM, CLUSTER_RADIUS_PIXELS, TILE_SIZE);
+    private final SourcePartitions partitions = new SourcePartitions(PARTITION_COUNT, PARTITION_TILE_ZOOM, INITIAL_CAPACITY);
+
+    /* packed list of live slots, and the position of each slot in that list or -1 */
+    private int[] live = new int[INITIAL_CAPACITY];
+    private int[] liveIndex = filled(INITIAL_CAPACITY);
+    private int liveCount;
+
+    private int[] free = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private int highWater;
+
+    private final StringIntTable slots = new StringIntTable(INITIAL_CAPACITY);
+
+    /**
+     * @param historyCapacity the maximum number of fixes kept per vehicle
+     */
+    VehicleStore(int historyCapacity) {
+        history = new PositionHistory(historyCapacity, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return the slot of the vehicle, or {@link #NO_SLOT} if it is not tracked
+     */
+    int slotOf(String id) {
+        int slot = slots.get(id);
+        return slot != StringIntTable.ABSENT ? slot : NO_SLOT;
+    }
+
+    /**
+     * Returns the slot of a vehicle, allocating a fresh one if the id is not tracked yet.
+     */
+    int intern(String id) {
+        int slot = slots.get(id);
+        if (slot != StringIntTable.ABSENT) {
+            return slot;
+        }
+        slot = freeCount > 0 ? free[--freeCount] : highWater++;
+        ensureCapacity(slot + 1);
+        slots.put(id, slot);
+
+        ids[slot] = id;
+        moving[slot] = false;
+        history.clear(slot);
+
+        liveIndex[slot] = liveCount;
+        live[liveCount++] = slot;
+        return slot;
+    }
+
+    /**
+     * Forgets a vehicle and makes its slot available for reuse.
+     */
+    void remove(int slot) {
+        int index = liveIndex[slot];
+        if (index < 0) {
+            return;
+        }
+        int last = live[--liveCount];
+        live[index] = last;
+        liveIndex[last] = index;
+        liveIndex[slot] = -1;
+
+        if (selectedSlot == slot) {
+            selectedSlot = NO_SLOT;
+        }
+        grid.remove(slot);
+        clusters.remove(slot);
+        partitions.remove(slot);
+        slots.remove(ids[slot]);
+        ids[slot] = null;
+        startDates.release(startDate[slot]);
+        routeIds.release(routeId[slot]);
+        tripIds.release(tripId[slot]);
+        startDate[slot] = AttributeDictionary.NO_CODE;
+        routeId[slot] = AttributeDictionary.NO_CODE;
+        tripId[slot] = AttributeDictionary.NO_CODE;
+        history.clear(slot);
+        free[freeCount++] = slot;
+    }
+
+    /**
+     * @return the number of vehicles currently tracked
+     */
+    int size() {
+        return liveCount;
+    }
+
+    /**
+     * @param index a position between 0 and {@link #size()}
+     * @return the slot at that position in the live list
+     */
+    int slotAt(int index) {
+        return live[index];
+    }
+
+    /**
+     * @return the position of the slot in the live list, or -1 if the slot is not in use
+     */
+    int indexOf(int slot) {
+        return liveIndex[slot];
+    }
+
+    String id(int slot) {
+        return ids[slot];
+    }
+
+    double longitude(int slot) {
+        return lng[slot];
+    }
+
+    double latitude(int slot) {
+        return lat[slot];
+    }
+
+    void setPosition(int slot, double longitude, double latitude) {
+        lng[slot] = longitude;
+        lat[slot] = latitude;
+        grid.update(slot, longitude, latitude);
+        clusters.update(slot, longitude, latitude);
+        partitions.update(slot, longitude, latitude);
+    }
+
+    boolean isMoving(int slot) {
+        return moving[slot];
+    }
+
+    void setMoving(int slot, boolean value) {
+        moving[slot] = value;
+    }
+
+    boolean isSelected(int slot) {
+        return slot == selectedSlot;
+    }
+
+    /**
+     * @return the selected slot, or {@link #NO_SLOT} if nothing is selected
+     */
+    int selectedSlot() {
+        return selectedSlot;
+    }
+
+    /**
+     * Selects a vehicle, deselecting the previous one.
+     */
+    void select(int slot) {
+        selectedSlot = slot;
+    }
+
+    void clearSelection() {
+        selectedSlot = NO_SLOT;
+    }
+
+    String startDate(int slot) {
+        return startDates.value(startDate[slot]);
+    }
+
+    String routeId(int slot) {
+        return routeIds.value(routeId[slot]);
+    }
+
+    String tripId(int slot) {
+        return tripIds.value(tripId[slot]);
+    }
+
+    /**
+     * @return the code of the start date in {@link #startDates()}
+     */
+    int startDateCode(int slot) {
+        return startDate[slot];
+    }
+
+    /**
+     * @return the code of the route id in {@link #routeIds()}
+     */
+    int routeCode(int slot) {
+        return routeId[slot];
+    }
+
+    /**
+     * @return the code of the trip id in {@link #tripIds()}
+     */
+    int tripCode(int slot) {
+        return tripId[slot];
+    }
+
+    /**
+     * Sets the trip of a vehicle, marking its partition dirty only if the trip changed.
+     */
+    void setTrip(int slot, String startDate, String routeId, String tripId) {
+        int oldStartDate = this.startDate[slot];
+        int oldRoute = this.routeId[slot];
+        int oldTrip = this.tripId[slot];
+        this.startDate[slot] = startDates.replace(oldStartDate, startDate);
+        this.routeId[slot] = routeIds.replace(oldRoute, routeId);
+        this.tripId[slot] = tripIds.replace(oldTrip, tripId);
+        if (this.startDate[slot] != oldStartDate || this.routeId[slot] != oldRoute || this.tripId[slot] != oldTrip) {
+            partitions.touch(slot);
+        }
+    }
+
+    AttributeDictionary startDates() {
+        return startDates;
+    }
+
+    AttributeDictionary routeIds() {
+        return routeIds;
+    }
+
+    AttributeDictionary tripIds() {
+        return tripIds;
+    }
+
+    /**
+     * @return the index of current vehicle positions, addressed by slot
+     */
+    SpatialGrid grid() {
+        return grid;
+    }
+
+    /**
+     * @return the clusters of current vehicle positions per zoom level
+     */
+    PointClusterer clusters() {
+        return clusters;
+    }
+
+    /**
+     * @return the map source partitions of current vehicle positions, addressed by slot
+     */
+    SourcePartitions partitions() {
+        return partitions;
+    }
+
+    /**
+     * @return the recent fixes of every vehicle, addressed by slot
+     */
+    PositionHistory history() {
+        return history;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int oldCapacity = ids.length;
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        lng = Arrays.copyOf(lng, newCapacity);
+        lat = Arrays.copyOf(lat, newCapacity);
+        moving = Arrays.copyOf(moving, newCapacity);
+        startDate = Arrays.copyOf(startDate, newCapacity);
+        routeId = Arrays.copyOf(routeId, newCapacity);
+        tripId = Arrays.copyOf(tripId, newCapacity);
+        Arrays.fill(startDate, oldCapacity, newCapacity, AttributeDictionary.NO_CODE);
+        Arrays.fill(routeId, oldCapacity, newCapacity, AttributeDictionary.NO_CODE);
+        Arrays.fill(tripId, oldCapacity, newCapacity, AttributeDictionary.NO_CODE);
+        live = Arrays.copyOf(live, newCapacity);
+        free = Arrays.copyOf(free, newCapacity);
+        liveIndex = Arrays.copyOf(liveIndex, newCapacity);
+        Arrays.fill(liveIndex, oldCapacity, newCapacity, -1);
+    }
+
+    private static int[] codes(int capacity) {
+        int[] array = new int[capacity];
+        Arrays.fill(array, AttributeDictionary.NO_CODE);
+        return array;
+    }
+
+    private static int[] filled(int capacity) {
+        int[] array = new int[capacity];
+        Arrays.fill(array, -1);
+        return array;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.basicmapbox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Staging buffer between the thread delivering feed messages and the main thread.
+ * <p>
+ * Updates are keyed by vehicle id, so when several messages for the same bus arrive between two
+ * frames only the latest one survives. The main thread drains the buffer once per frame.
+ * </p>
+ */
+final class VehicleUpdateBuffer {
+
+    /**
+     * Receives every update drained by {@link #drain(Consumer)}. Records are recycled between
+     * flushes, so a consumer must not keep a reference to one after it returns.
+     */
+    interface Consumer {
+        void accept(VehicleFix update);
+    }
+
+    private final Object lock = new Object();
+    private final ArrayList<VehicleFix> pool = new ArrayList<>();
+    private HashMap<String, VehicleFix> pending = new HashMap<>();
+    private HashMap<String, VehicleFix> draining = new HashMap<>();
+
+    private long pendingReceived;
+    private long pendingMerged;
+
+    private long totalReceived;
+    private long totalMerged;
+    private long flushCount;
+    private long lastFlushReceived;
+    private long lastFlushMerged;
+    private int lastFlushSize;
+
+    /**
+     * Stages a copy of a fix, replacing any fix for the same vehicle which has not been drained
+     * yet. Safe to call from any thread.
+     */
+    void offer(VehicleFix fix) {
+        synchronized (lock) {
+            VehicleFix update = pending.get(fix.id);
+            if (update == null) {
+                update = pool.isEmpty() ? new VehicleFix() : pool.remove(pool.size() - 1);
+                pending.put(fix.id, update);
+            } else {
+                pendingMerged++;
+            }
+            update.copyFrom(fix);
+            pendingReceived++;
+        }
+    }
+
+    /**
+     * Hands every staged update to the consumer and empties the buffer. Must only be called from
+     * a single thread, normally the main thread once per frame.
+     *
+     * @return the number of distinct vehicles drained
+     */
+    int drain(Consumer consumer) {
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return 0;
+            }
+            HashMap<String, VehicleFix> swap = draining;
+            draining = pending;
+            pending = swap;
+
+            lastFlushReceived = pendingReceived;
+            lastFlushMerged = pendingMerged;
+            lastFlushSize = draining.size();
+            totalReceived += pendingReceived;
+            totalMerged += pendingMerged;
+            flushCount++;
+            pendingReceived = 0;
+            pendingMerged = 0;
+        }
+
+        for (VehicleFix update : draining.values()) {
+            consumer.accept(update);
+        }
+
+        int size = draining.size();
+        synchronized (lock) {
+            for (VehicleFix update : draining.values()) {
+                update.reset();
+                pool.add(update);
+            }
+        }
+        draining.clear();
+        return size;
+    }
+
+    /**
+     * @return the number of messages received over the lifetime of the buffer
+     */
+    long getTotalReceived() {
+        synchronized (lock) {
+            return totalReceived;
+        }
+    }
+
+    /**
+     * @return the number of messages which were superseded before being drained
+     */
+    long getTotalMerged() {
+        synchronized (lock) {
+            return totalMerged;
+        }
+    }
+
+    /**
+     * @return the number of distinct vehicles waiting for the next drain
+     */
+    int getPendingSize() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return the number of messages received since the last drain, including merged ones
+     */
+    long getPendingReceived() {
+        synchronized (lock) {
+            return pendingReceived;
+        }
+    }
+
+    long getFlushCount() {
+        synchronized (lock) {
+            return flushCount;
+        }
+    }
+
+    /**
+     * @return the number of messages folded into the most recent flush
+     */
+    long getLastFlushReceived() {
+        synchronized (lock) {
+            return lastFlushReceived;
+        }
+    }
+
+    /**
+     * @return the number of messages dropped in favour of a newer one in the most recent flush
+     */
+    long getLastFlushMerged() {
+        synchronized (lock) {
+            return lastFlushMerged;
+        }
+    }
+
+    /**
+     * @return the number of distinct vehicles applied by the most recent flush
+     */
+    int getLastFlushSize() {
+        synchronized (lock) {
+            return lastFlushSize;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.basicmapbox;
+
+/**
+ * The part of the map worth spending work on: the visible camera bounds grown by a margin on
+ * every side, so vehicles entering the screen are already in place when they appear.
+ * <p>
+ * Until bounds are set the viewport is unbounded and every vehicle counts as visible.
+ * </p>
+ */
+final class Viewport {
+
+    private double margin;
+
+    private boolean bounded;
+    private double west;
+    private double south;
+    private double east;
+    private double north;
+
+    /**
+     * @param margin how far to grow the bounds on each side, as a fraction of their span
+     */
+    Viewport(double margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * Changes the margin for the bounds set next.
+     */
+    void setMargin(double margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * Sets the visible bounds of the camera.
+     */
+    void set(double west, double south, double east, double north) {
+        double padLng = (east - west) * margin;
+        double padLat = (north - south) * margin;
+        this.west = west - padLng;
+        this.east = east + padLng;
+        this.south = south - padLat;
+        this.north = north + padLat;
+        bounded = true;
+    }
+
+    void clear() {
+        bounded = false;
+    }
+
+    boolean isBounded() {
+        return bounded;
+    }
+
+    boolean contains(double longitude, double latitude) {
+        return !bounded || (longitude >= west && longitude <= east && latitude >= south && latitude <= north);
+    }
+
+    /**
+     * @return true if the box between the two corners overlaps the viewport
+     */
+    boolean intersects(double lng1, double lat1, double lng2, double lat2) {
+        return !bounded || (Math.max(lng1, lng2) >= west && Math.min(lng1, lng2) <= east
+                && Math.max(lat1, lat2) >= south && Math.min(lat1, lat2) <= north);
+    }
+
+    double west() {
+        return west;
+    }
+
+    double south() {
+        return south;
+    }
+
+    double east() {
+        return east;
+    }
+
+    double north() {
+        return north;
+    }
+}
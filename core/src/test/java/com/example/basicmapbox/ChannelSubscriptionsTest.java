@@ -0,0 +1,118 @@
+package com.example.basicmapbox;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a synthetic fleet through the subscriptions a minute at a time and counts the messages
+ * decoded, the way the map ingests them, against subscribing to the firehose.
+ */
+public class ChannelSubscriptionsTest {
+
+    private static final double LONGITUDE = -72.6851;
+    private static final double LATITUDE = 41.7637;
+    private static final double RADIUS_METRES = 15000.0;
+    private static final int VEHICLES = 2000;
+    private static final long MINUTE = 60000;
+    private static final long STEP = 100;
+
+    /* as the map configures them */
+    private static final int TILE_ZOOM = 12;
+    private static final int MAX_TILES = 16;
+    private static final double EXIT_MARGIN = 0.5;
+    private static final long LINGER = 10000;
+
+    private final SyntheticMessageSource source = new SyntheticMessageSource(VEHICLES, 1.0,
+            LONGITUDE, LATITUDE, RADIUS_METRES, 1L);
+    private final ChannelSubscriptions subscriptions = new ChannelSubscriptions(source, TILE_ZOOM, MAX_TILES,
+            EXIT_MARGIN, LINGER);
+    private final FeedPayloadDecoder decoder = new FeedPayloadDecoder();
+    private final VehicleFix fix = new VehicleFix();
+    private long now;
+    private long decoded;
+
+    @Before
+    public void setUp() {
+        now = source.startMillis();
+    }
+
+    @Test
+    public void decodesFewerMessagesAtStreetZoom() throws Exception {
+        source.subscribe(FeedChannels.ALL);
+        long firehose = decodedInAMinute();
+        assertEquals(VEHICLES * 60.0, firehose, VEHICLES);
+        source.unsubscribe(FeedChannels.ALL);
+
+        subscriptions.update(viewport(1000), Collections.<String>emptyList(), now);
+        assertFalse(subscriptions.describe(), subscriptions.channels().contains(FeedChannels.ALL));
+        long street = decodedInAMinute();
+        assertTrue(street + " vs " + firehose, street > 0 && street * 4 < firehose);
+    }
+
+    @Test
+    public void dropsTheFirehoseOnceTheTilesAreSubscribed() throws Exception {
+        subscriptions.update(viewport(100000), Collections.<String>emptyList(), now);
+        assertEquals(Collections.singleton(FeedChannels.ALL), subscriptions.channels());
+        long city = decodedInAMinute();
+
+        subscriptions.update(viewport(1000), Collections.<String>emptyList(), now);
+        assertFalse(subscriptions.describe(), subscriptions.channels().contains(FeedChannels.ALL));
+        assertTrue(decodedInAMinute() * 4 < city);
+    }
+
+    @Test
+    public void neverKeepsTheFirehoseForAnExitAreaOfTooManyTiles() throws Exception {
+        subscriptions.update(viewport(100000), Collections.<String>emptyList(), now);
+        /* zoomed in to a viewport within the tile limit whose exit area is beyond it */
+        Viewport viewport = viewport(16000);
+        subscriptions.update(viewport, Collections.<String>emptyList(), now);
+        assertFalse(subscriptions.describe(), subscriptions.channels().contains(FeedChannels.ALL));
+        assertTrue(subscriptions.channels().size() <= MAX_TILES);
+
+        long tiles = decodedInAMinute();
+        subscriptions.update(viewport, Collections.<String>emptyList(), now);
+        assertFalse(subscriptions.channels().contains(FeedChannels.ALL));
+        assertTrue(tiles + " of " + VEHICLES * 60, tiles < VEHICLES * 60);
+    }
+
+    @Test
+    public void keepsFollowedRoutesOutsideTheViewport() throws Exception {
+        subscriptions.update(viewport(1000), Collections.singletonList("S0"), now);
+        assertTrue(subscriptions.channels().contains(FeedChannels.route("S0")));
+        /* 20 vehicles per route, reporting every second */
+        assertTrue(decodedInAMinute() >= 20 * 59);
+    }
+
+    /**
+     * @return how many messages were decoded over the next minute of the fleet
+     */
+    private long decodedInAMinute() {
+        decoded = 0;
+        for (long end = now + MINUTE; now < end; ) {
+            now += STEP;
+            source.deliver(payload -> {
+                if (decoder.decode(payload, fix)) {
+                    decoded++;
+                }
+            }, now);
+        }
+        return decoded;
+    }
+
+    /**
+     * @return a square viewport this many metres across, centred on the fleet
+     */
+    private static Viewport viewport(double metres) {
+        double halfLat = metres / 2 / 111320.0;
+        double halfLng = halfLat / Math.cos(Math.toRadians(LATITUDE));
+        Viewport viewport = new Viewport(0);
+        viewport.set(LONGITUDE - halfLng, LATITUDE - halfLat, LONGITUDE + halfLng, LATITUDE + halfLat);
+        return viewport;
+    }
+}
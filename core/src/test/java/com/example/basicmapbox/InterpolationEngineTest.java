@@ -0,0 +1,188 @@
+package com.example.basicmapbox;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays recorded feeds through the engine on a clock set to the time each message was received,
+ * the way the replay feed source drives it, and checks where the vehicle is drawn.
+ * <p>
+ * Fixes are recorded as GTFS-realtime protobuf, which carries coordinates as floats, so the
+ * coordinates used here are exactly representable as floats and come back unchanged.
+ * </p>
+ */
+public class InterpolationEngineTest {
+
+    private static final double METRES_PER_DEGREE = 111320.0;
+    private static final double DELTA = 1e-9;
+    private static final long T0 = 1600000000000L;
+    private static final double LONGITUDE = -72.5;
+    private static final double LATITUDE = 41.5;
+    /* about 81 m of longitude at LATITUDE, within the snap distance */
+    private static final double NEAR = 1.0 / 1024;
+    /* about 325 m of longitude at LATITUDE, beyond it */
+    private static final double FAR = 1.0 / 256;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final VehicleStore store = new VehicleStore(16);
+    private long now;
+    private final InterpolationEngine engine = new InterpolationEngine(store, () -> now);
+    private final GtfsRealtimeVehicleEncoder encoder = new GtfsRealtimeVehicleEncoder();
+    private FeedRecording.Writer recording;
+    private File recordingFile;
+
+    @Before
+    public void setUp() throws IOException {
+        engine.setMotion(60000L, 2000L, 250.0);
+        recordingFile = folder.newFile("feed.rec");
+        recording = new FeedRecording.Writer(recordingFile);
+    }
+
+    @Test
+    public void deadReckonsFromTheLatestFix() throws IOException {
+        /* due east at 10 m/s */
+        record(T0, fix(LONGITUDE, LATITUDE, T0, 90, 10));
+        assertTrue(replay().get(0));
+        int slot = store.slotOf("bus-1");
+        assertTrue(store.isMoving(slot));
+
+        now = T0 + 5000;
+        engine.tick();
+        assertEquals(LONGITUDE + metresEast(50), store.longitude(slot), DELTA);
+        assertEquals(LATITUDE, store.latitude(slot), DELTA);
+
+        /* extrapolation stops after a minute, 600 m on */
+        now = T0 + 120000;
+        engine.tick();
+        assertEquals(LONGITUDE + metresEast(600), store.longitude(slot), DELTA);
+        assertFalse(store.isMoving(slot));
+        assertFalse(engine.isAnimating());
+    }
+
+    @Test
+    public void estimatesVelocityFromConsecutiveFixes() throws IOException {
+        record(T0, fix(LONGITUDE, LATITUDE, T0, Double.NaN, Double.NaN));
+        record(T0 + 10000, fix(LONGITUDE + NEAR, LATITUDE, T0 + 10000, Double.NaN, Double.NaN));
+        replay();
+        int slot = store.slotOf("bus-1");
+
+        /* past the blend, the bus is where the velocity between the fixes takes it */
+        now = T0 + 15000;
+        engine.tick();
+        assertEquals(LONGITUDE + NEAR * 1.5, store.longitude(slot), DELTA);
+    }
+
+    @Test
+    public void blendsSmallCorrections() throws IOException {
+        record(T0, fix(LONGITUDE, LATITUDE, T0, Double.NaN, Double.NaN));
+        record(T0 + 10000, fix(LONGITUDE + NEAR, LATITUDE, T0 + 10000, Double.NaN, Double.NaN));
+        replay();
+        int slot = store.slotOf("bus-1");
+        double velocity = NEAR / 10000;
+
+        /* the bus starts where it was drawn, not on the new fix */
+        assertEquals(LONGITUDE, store.longitude(slot), DELTA);
+        engine.tick();
+        assertEquals(LONGITUDE, store.longitude(slot), DELTA);
+
+        /* halfway through the blend, half of the correction is left */
+        now = T0 + 11000;
+        engine.tick();
+        double predicted = LONGITUDE + NEAR + velocity * 1000;
+        assertEquals(predicted - NEAR * 0.5, store.longitude(slot), DELTA);
+
+        now = T0 + 12000;
+        engine.tick();
+        assertEquals(LONGITUDE + NEAR + velocity * 2000, store.longitude(slot), DELTA);
+    }
+
+    @Test
+    public void snapsLargeCorrections() throws IOException {
+        record(T0, fix(LONGITUDE, LATITUDE, T0, Double.NaN, Double.NaN));
+        record(T0 + 10000, fix(LONGITUDE + FAR, LATITUDE, T0 + 10000, 0, 0));
+        replay();
+        int slot = store.slotOf("bus-1");
+
+        assertEquals(LONGITUDE + FAR, store.longitude(slot), DELTA);
+        assertFalse(engine.isAnimating());
+    }
+
+    @Test
+    public void rejectsFixesThatAreNotNewer() throws IOException {
+        record(T0, fix(LONGITUDE, LATITUDE, T0 + 20000, 0, 0));
+        /* arrives later but was taken earlier */
+        record(T0 + 1000, fix(LONGITUDE + FAR, LATITUDE, T0 + 10000, 0, 0));
+        /* taken at the same time as the fix already held */
+        record(T0 + 2000, fix(LONGITUDE + FAR, LATITUDE, T0 + 20000, 0, 0));
+        record(T0 + 3000, fix(LONGITUDE + NEAR, LATITUDE, T0 + 21000, 0, 0));
+
+        List<Boolean> applied = replay();
+        assertEquals(4, applied.size());
+        assertTrue(applied.get(0));
+        assertFalse(applied.get(1));
+        assertFalse(applied.get(2));
+        assertTrue(applied.get(3));
+
+        /* only the blend towards the last fix moved the bus */
+        now = T0 + 10000;
+        engine.tick();
+        assertEquals(LONGITUDE + NEAR, store.longitude(store.slotOf("bus-1")), DELTA);
+    }
+
+    private static VehicleFix fix(double longitude, double latitude, long timestamp, double bearing, double speed) {
+        VehicleFix fix = new VehicleFix();
+        fix.id = "bus-1";
+        fix.longitude = longitude;
+        fix.latitude = latitude;
+        fix.timestamp = timestamp;
+        fix.bearing = bearing;
+        fix.speed = speed;
+        fix.routeId = "route-1";
+        fix.tripId = "trip-1";
+        return fix;
+    }
+
+    private void record(long receivedAtMillis, VehicleFix fix) throws IOException {
+        recording.write(receivedAtMillis, encoder.encode(fix));
+    }
+
+    /**
+     * Closes the recording and feeds every message in it to the engine, each at the time it was
+     * received.
+     *
+     * @return whether the engine took each fix
+     */
+    private List<Boolean> replay() throws IOException {
+        recording.close();
+        List<Boolean> applied = new ArrayList<>();
+        FeedPayloadDecoder decoder = new FeedPayloadDecoder();
+        VehicleFix decoded = new VehicleFix();
+        try (FeedRecording.Reader reader = new FeedRecording.Reader(recordingFile)) {
+            while (reader.next()) {
+                now = reader.receivedAtMillis();
+                assertTrue(decoder.decode(reader.payload(), decoded));
+                int slot = store.intern(decoded.id);
+                applied.add(engine.update(slot, decoded.longitude, decoded.latitude, decoded.timestamp,
+                        decoded.bearing, decoded.speed));
+            }
+        }
+        return applied;
+    }
+
+    private static double metresEast(double metres) {
+        return metres / (METRES_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+}
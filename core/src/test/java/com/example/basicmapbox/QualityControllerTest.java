@@ -0,0 +1,122 @@
+package com.example.basicmapbox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the controller with synthetic frame times and queue depths, one frame every
+ * {@link #FRAME_INTERVAL} milliseconds, and checks when it changes level.
+ */
+public class QualityControllerTest {
+
+    private static final long FRAME_INTERVAL = 10;
+    private static final long BUDGET_NANOS = 8000000L;
+    private static final int QUEUE_LIMIT = 5000;
+    private static final long STEP_DOWN = 500;
+    private static final long STEP_UP = 3000;
+
+    private static final long FAST = 1000000L;
+    private static final long SLOW = 20000000L;
+
+    /* level changes as "level@time" */
+    private final List<String> changes = new ArrayList<>();
+    private final List<String> reasons = new ArrayList<>();
+    private long now;
+    private final QualityController controller = new QualityController(BUDGET_NANOS, QUEUE_LIMIT,
+            STEP_DOWN, STEP_UP, (level, reason) -> {
+        changes.add(level + "@" + now);
+        reasons.add(reason);
+    });
+
+    @Test
+    public void stepsDownOneLevelAtATimeWhileFramesAreSlow() {
+        run(0, 600, SLOW, 0);
+        assertEquals(QualityController.COALESCE, controller.level());
+        assertEquals("1@500", changes.get(0));
+        assertTrue(reasons.get(0), reasons.get(0).startsWith("frame"));
+
+        /* each step needs a fresh stretch of pressure, measured from the frame after the last */
+        run(600, 5000, SLOW, 0);
+        assertEquals(asList("1@500", "2@1010", "3@1520", "4@2030"), changes);
+        assertEquals(QualityController.STRICT_CULL, controller.level());
+        assertEquals(4, controller.changeCount());
+    }
+
+    @Test
+    public void ignoresASingleSlowFrame() {
+        run(0, 1000, FAST, 0);
+        run(1000, 1010, 30000000L, 0);
+        run(1010, 5000, FAST, 0);
+        assertEquals(QualityController.FULL, controller.level());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void stepsDownWhenTheQueueBacksUp() {
+        run(0, 600, FAST, QUEUE_LIMIT + 1);
+        assertEquals(asList("1@500"), changes);
+        assertTrue(reasons.get(0), reasons.get(0).startsWith("queue"));
+    }
+
+    @Test
+    public void restartsTheStepDownTimerWhenPressureLetsUp() {
+        run(0, 400, FAST, QUEUE_LIMIT + 1);
+        run(400, 410, FAST, 0);
+        run(410, 1000, FAST, QUEUE_LIMIT + 1);
+        assertEquals(asList("1@910"), changes);
+    }
+
+    @Test
+    public void stepsUpOnlyAfterStayingWellBelowTheLimits() {
+        run(0, 510, FAST, QUEUE_LIMIT + 1);
+        assertEquals(QualityController.COALESCE, controller.level());
+
+        /* below the limit but above the recovery threshold: no pressure, no recovery either */
+        run(510, 10000, FAST, QUEUE_LIMIT / 2 + 1);
+        assertEquals(QualityController.COALESCE, controller.level());
+
+        run(10000, 13000, FAST, 0);
+        assertEquals(QualityController.COALESCE, controller.level());
+        run(13000, 13010, FAST, 0);
+        assertEquals(QualityController.FULL, controller.level());
+        assertEquals(asList("1@500", "0@13000"), changes);
+        assertTrue(reasons.get(1), reasons.get(1).startsWith("recovered"));
+    }
+
+    @Test
+    public void waitsAfterAStepDownBeforeSteppingUp() {
+        run(0, 510, FAST, QUEUE_LIMIT + 1);
+        run(510, 10000, FAST, 0);
+        /* calm from 510, but the step up also waits for the full time since the last change */
+        assertEquals(asList("1@500", "0@3510"), changes);
+    }
+
+    @Test
+    public void stepsUpOneLevelAtATime() {
+        run(0, 3000, SLOW, 0);
+        assertEquals(QualityController.STRICT_CULL, controller.level());
+        changes.clear();
+
+        /* the moving average takes a few frames to fall below the recovery threshold */
+        run(3000, 20000, FAST, 0);
+        assertEquals(QualityController.FULL, controller.level());
+        assertEquals(asList("3@6080", "2@9090", "1@12100", "0@15110"), changes);
+        assertEquals(8, controller.changeCount());
+        assertTrue(controller.describe(), controller.describe().startsWith("quality=full changes=8"));
+    }
+
+    /**
+     * Reports a frame every {@link #FRAME_INTERVAL} from {@code from} up to, not including, {@code to}.
+     */
+    private void run(long from, long to, long frameNanos, long queueDepth) {
+        for (now = from; now < to; now += FRAME_INTERVAL) {
+            controller.onFrame(frameNanos, queueDepth, now);
+        }
+    }
+}